@@ -12,6 +12,12 @@ import java.util.StringTokenizer;
 /**
  * The default autograder. Loads the kernel, and then tests it using
  * <tt>Kernel.selfTest()</tt>.
+ *
+ * <p>
+ * The notification methods below are called through <tt>KernelEvents</tt>,
+ * and only if the autograder's class overrides them, except
+ * <tt>runningThread()</tt> and <tt>finishingCurrentThread()</tt>, which are
+ * always called.
  */
 public class AutoGrader {
 	/**
@@ -92,6 +98,13 @@ public class AutoGrader {
 		}
 	}
 
+	int getIntegerArgument(String key, int defaultValue) {
+		if (!testArgs.containsKey(key))
+			return defaultValue;
+
+		return getIntegerArgument(key);
+	}
+
 	boolean getBooleanArgument(String key) {
 		String value = getStringArgument(key);
 
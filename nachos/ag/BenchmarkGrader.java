@@ -0,0 +1,238 @@
+package nachos.ag;
+
+import nachos.machine.*;
+import nachos.threads.*;
+
+import java.util.Arrays;
+
+/**
+ * An autograder that measures how long the kernel's context switches and
+ * synchronization primitives take, instead of testing the kernel. Each
+ * benchmark has two threads hand control back and forth through one
+ * primitive, and is reported in host nanoseconds and simulated ticks per
+ * handoff, the median of several rounds after a warm-up round.
+ *
+ * <p>
+ * The benchmarks use whichever scheduler <tt>ThreadedKernel.scheduler</tt>
+ * names, so compare schedulers by running with a config file for each, for
+ * example from <tt>proj1</tt>:
+ *
+ * <pre>
+ * java nachos.machine.Machine -- nachos.ag.BenchmarkGrader -# handoffs=20000,rounds=5
+ * </pre>
+ *
+ * <p>
+ * The optional arguments are <tt>handoffs</tt>, the handoffs per round
+ * (default 10000), and <tt>rounds</tt>, the measured rounds (default 5).
+ */
+public class BenchmarkGrader extends AutoGrader {
+	void init() {
+		handoffs = getIntegerArgument("handoffs", 10000);
+		rounds = getIntegerArgument("rounds", 5);
+	}
+
+	void run() {
+		System.out.println("Benchmarking " + handoffs + " handoffs per round, " + rounds + " rounds, with "
+				+ ThreadedKernel.scheduler.getClass().getName());
+
+		benchmark("KThread.yield", new YieldBenchmark());
+		benchmark("Semaphore P/V", new SemaphoreBenchmark());
+		benchmark("Lock handoff", new LockBenchmark());
+		benchmark("Condition2 sleep/wake", new ConditionBenchmark());
+		benchmark("Communicator speak/listen", new CommunicatorBenchmark());
+		benchmark("SynchList add/removeFirst", new SynchListBenchmark());
+
+		kernel.terminate();
+	}
+
+	/**
+	 * Run a warm-up round and the measured rounds of a benchmark, and print
+	 * the median cost of a handoff.
+	 */
+	private void benchmark(String name, Benchmark benchmark) {
+		long[] nanos = new long[rounds];
+		long[] ticks = new long[rounds];
+
+		for (int round = -1; round < rounds; round++) {
+			long startTicks = getTime();
+			long start = System.nanoTime();
+
+			KThread partner = new KThread(benchmark.partner()).setName(name);
+			partner.fork();
+			benchmark.main();
+			partner.join();
+
+			if (round >= 0) {
+				nanos[round] = System.nanoTime() - start;
+				ticks[round] = getTime() - startTicks;
+			}
+		}
+
+		Arrays.sort(nanos);
+		Arrays.sort(ticks);
+
+		System.out.println(name + ": " + nanos[rounds / 2] / handoffs + " ns, " + (double) ticks[rounds / 2] / handoffs
+				+ " ticks per handoff");
+	}
+
+	/**
+	 * Two threads that hand control to each other <tt>handoffs</tt> times
+	 * between them. <tt>partner()</tt> is run in a forked thread while the
+	 * benchmark thread runs <tt>main()</tt>.
+	 */
+	private abstract class Benchmark {
+		abstract Runnable partner();
+
+		abstract void main();
+	}
+
+	private class YieldBenchmark extends Benchmark {
+		Runnable partner() {
+			return new Runnable() {
+				public void run() {
+					for (int i = 0; i < handoffs / 2; i++)
+						KThread.yield();
+				}
+			};
+		}
+
+		void main() {
+			for (int i = 0; i < handoffs / 2; i++)
+				KThread.yield();
+		}
+	}
+
+	private class SemaphoreBenchmark extends Benchmark {
+		Runnable partner() {
+			ping = new Semaphore(0);
+			pong = new Semaphore(0);
+
+			return new Runnable() {
+				public void run() {
+					for (int i = 0; i < handoffs / 2; i++) {
+						ping.P();
+						pong.V();
+					}
+				}
+			};
+		}
+
+		void main() {
+			for (int i = 0; i < handoffs / 2; i++) {
+				ping.V();
+				pong.P();
+			}
+		}
+
+		private Semaphore ping, pong;
+	}
+
+	private class LockBenchmark extends Benchmark {
+		Runnable partner() {
+			lock = new Lock();
+
+			return new Runnable() {
+				public void run() {
+					loop();
+				}
+			};
+		}
+
+		void main() {
+			loop();
+		}
+
+		/**
+		 * Yield while holding the lock, so the other thread blocks on it and
+		 * gets it on release.
+		 */
+		private void loop() {
+			for (int i = 0; i < handoffs / 2; i++) {
+				lock.acquire();
+				KThread.yield();
+				lock.release();
+			}
+		}
+
+		private Lock lock;
+	}
+
+	private class ConditionBenchmark extends Benchmark {
+		Runnable partner() {
+			lock = new Lock();
+			condition = new Condition2(lock);
+			turn = 0;
+
+			return new Runnable() {
+				public void run() {
+					loop(1);
+				}
+			};
+		}
+
+		void main() {
+			loop(0);
+		}
+
+		private void loop(int me) {
+			lock.acquire();
+			for (int i = 0; i < handoffs / 2; i++) {
+				while (turn != me)
+					condition.sleep();
+				turn = 1 - me;
+				condition.wake();
+			}
+			lock.release();
+		}
+
+		private Lock lock;
+		private Condition2 condition;
+		private int turn;
+	}
+
+	private class CommunicatorBenchmark extends Benchmark {
+		Runnable partner() {
+			communicator = new Communicator();
+
+			return new Runnable() {
+				public void run() {
+					for (int i = 0; i < handoffs; i++)
+						communicator.speak(i);
+				}
+			};
+		}
+
+		void main() {
+			for (int i = 0; i < handoffs; i++)
+				communicator.listen();
+		}
+
+		private Communicator communicator;
+	}
+
+	private class SynchListBenchmark extends Benchmark {
+		Runnable partner() {
+			ping = new SynchList();
+			pong = new SynchList();
+
+			return new Runnable() {
+				public void run() {
+					for (int i = 0; i < handoffs / 2; i++)
+						pong.add(ping.removeFirst());
+				}
+			};
+		}
+
+		void main() {
+			Object token = new Object();
+			for (int i = 0; i < handoffs / 2; i++) {
+				ping.add(token);
+				Lib.assertTrue(pong.removeFirst() == token);
+			}
+		}
+
+		private SynchList ping, pong;
+	}
+
+	private int handoffs, rounds;
+}
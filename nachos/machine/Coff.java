@@ -55,7 +55,7 @@ public class Coff {
 	public Coff(OpenFile file) throws EOFException {
 		this.file = file;
 
-		Coff coff = Machine.autoGrader().createLoader(file);
+		Coff coff = Machine.events().createLoader(file);
 
 		if (coff != null) {
 			this.entryPoint = coff.entryPoint;
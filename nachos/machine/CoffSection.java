@@ -5,7 +5,6 @@ package nachos.machine;
 import nachos.security.*;
 
 import java.io.EOFException;
-import java.util.Arrays;
 
 /**
  * A <tt>CoffSection</tt> manages a single section within a COFF executable.
@@ -186,7 +185,7 @@ public class CoffSection {
 		Lib.assertTrue(ppn >= 0 && ppn < Machine.processor().getNumPhysPages());
 
 		int pageSize = Processor.pageSize;
-		byte[] memory = Machine.processor().getMemory();
+		Processor processor = Machine.processor();
 		int paddr = ppn * pageSize;
 		int faddr = contentOffset + spn * pageSize;
 		int initlen;
@@ -203,9 +202,12 @@ public class CoffSection {
 			initlen = pageSize;
 
 		if (initlen > 0)
-			Lib.strictReadFile(file, faddr, memory, paddr, initlen);
+			Lib.strictReadFile(file, faddr, processor.getMemory(), paddr, initlen);
 
-		Arrays.fill(memory, paddr + initlen, paddr + pageSize, (byte) 0);
+		processor.clearPhysicalMemory(paddr + initlen, pageSize - initlen);
+
+		if (processor.profiler() != null)
+			processor.profiler().pageLoaded(ppn, this, file.getName());
 	}
 
 	/** The COFF object to which this section belongs. */
@@ -0,0 +1,64 @@
+// PART OF THE MACHINE SIMULATION. DO NOT CHANGE.
+
+package nachos.machine;
+
+/**
+ * The simulated time the kernel is charged for its operations, read from the
+ * <tt>CostModel.</tt> configuration keys.
+ *
+ * <p>
+ * By default, kernel time only advances when interrupts are enabled, by
+ * <tt>Stats.KernelTick</tt> ticks, and every other operation is free. The
+ * kernel time then depends on how often kernel code happens to toggle
+ * interrupts. Setting <tt>CostModel.interruptEnable</tt> to 0 and giving the
+ * other operations a cost charges the kernel for what it does instead: a
+ * system call, a context switch, a page fault or TLB miss, and an operation on
+ * a lock or semaphore. Charging an operation only advances the time; the
+ * interrupts that become due are handled at the next preemption point, which
+ * is the next time interrupts are enabled, or the next user instruction.
+ */
+public final class CostModel {
+	/**
+	 * Read the cost of each operation from the configuration.
+	 */
+	CostModel() {
+		for (int i = 0; i < numOperations; i++) {
+			ticks[i] = Config.getInteger("CostModel." + operationNames[i], defaultTicks[i]);
+			Lib.assertTrue(ticks[i] >= 0, "CostModel." + operationNames[i] + " must not be negative");
+		}
+
+		Lib.assertTrue(ticks[interruptEnable] > 0 || ticks[contextSwitch] > 0,
+				"CostModel: interruptEnable or contextSwitch must cost something, or a thread that yields while it waits never sees time pass");
+	}
+
+	/**
+	 * Return the number of kernel ticks charged for the specified operation.
+	 *
+	 * @param operation
+	 *            the operation.
+	 * @return the cost of the operation, in ticks.
+	 */
+	public int ticks(int operation) {
+		return ticks[operation];
+	}
+
+	/** Enabling interrupts after they were disabled. */
+	public static final int interruptEnable = 0;
+	/** Entering the kernel through a syscall instruction. */
+	public static final int syscall = 1;
+	/** Switching the processor from one thread to another. */
+	public static final int contextSwitch = 2;
+	/** Entering the kernel through a page fault or TLB miss. */
+	public static final int pageFault = 3;
+	/** Acquiring or releasing a lock, or P or V on a semaphore. */
+	public static final int lockOperation = 4;
+
+	private static final int numOperations = 5;
+
+	private static final String[] operationNames = { "interruptEnable", "syscall", "contextSwitch", "pageFault",
+			"lockOperation" };
+
+	private static final int[] defaultTicks = { Stats.KernelTick, 0, 0, 0, 0 };
+
+	private int[] ticks = new int[numOperations];
+}
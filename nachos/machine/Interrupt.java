@@ -4,9 +4,8 @@ package nachos.machine;
 
 import nachos.security.*;
 
-import java.util.TreeSet;
-import java.util.Iterator;
-import java.util.SortedSet;
+import java.util.Arrays;
+import java.util.Random;
 
 /**
  * The <tt>Interrupt</tt> class emulates low-level interrupt hardware. The
@@ -24,7 +23,10 @@ import java.util.SortedSet;
  * <ul>
  * <li>interrupts are enabled, when they were previously disabled
  * <li>a MIPS instruction is executed
+ * <li>the kernel is charged for an operation by <tt>charge()</tt>
  * </ul>
+ * How much time the kernel's operations take is set by the
+ * <tt>CostModel</tt>.
  *
  * <p>
  * As a result, unlike real hardware, interrupts (including time-slice context
@@ -53,7 +55,10 @@ public final class Interrupt {
 	privilege.interrupt = new InterruptPrivilege();
 	
 	enabled = false;
-	pending = new TreeSet<PendingInterrupt>();
+	pending = new PendingQueue();
+
+	costs = new CostModel();
+	enableTicks = costs.ticks(CostModel.interruptEnable);
     }
 
     /**
@@ -87,7 +92,10 @@ public final class Interrupt {
     /**
      * Set the interrupt status to be enabled (<tt>true</tt>) or disabled
      * (<tt>false</tt>) and return the previous status. If the interrupt
-     * status changes from disabled to enabled, the simulated time is advanced.
+     * status changes from disabled to enabled, the simulated time is advanced
+     * by the cost of enabling interrupts, and the interrupts that are due are
+     * handled. If enabling interrupts costs nothing, they are only handled if
+     * the kernel was charged for something since they were last checked.
      *
      * @param	status		<tt>true</tt> to enable interrupts.
      * @return			<tt>true</tt> if interrupts were enabled.
@@ -96,7 +104,7 @@ public final class Interrupt {
 	boolean oldStatus = enabled;
 	enabled = status;
 	
-	if (oldStatus == false && status == true)
+	if (oldStatus == false && status == true && (enableTicks != 0 || charged))
 	    tick(true);
 
 	return oldStatus;
@@ -120,25 +128,90 @@ public final class Interrupt {
 	return !enabled;
     }
 
+    /**
+     * Charge the kernel for the specified operation. The simulated time
+     * advances by the cost the <tt>CostModel</tt> gives the operation, but
+     * the interrupts that become due are only handled at the next preemption
+     * point: when interrupts are next enabled, or at the next user tick.
+     *
+     * @param	operation	the operation, one of the <tt>CostModel</tt>
+     *				constants.
+     */
+    public void charge(int operation) {
+	int ticks = costs.ticks(operation);
+	if (ticks == 0)
+	    return;
+
+	Stats stats = privilege.stats;
+	stats.kernelTicks += ticks;
+	stats.totalTicks += ticks;
+
+	charged = true;
+    }
+
+    /**
+     * Skip the kernel ticks the idle thread would spend yielding before the
+     * next pending interrupt becomes due. The simulated time advances by a
+     * whole number of the ticks enabling interrupts costs, stopping one tick
+     * short of the interrupt, so the interrupt occurs at the same time as it
+     * would have if the idle thread had kept yielding. If enabling interrupts
+     * costs nothing, the time advances to the interrupt. The ticks skipped
+     * are also counted as idle ticks. Interrupts must be disabled, and the
+     * kernel must only call this method when no thread but the idle thread
+     * can run.
+     */
+    public void idle() {
+	Lib.assertTrue(disabled());
+
+	if (pending.isEmpty())
+	    return;
+
+	Stats stats = privilege.stats;
+	long ticks;
+
+	if (enableTicks == 0) {
+	    // the idle thread's yields take no time, so it must skip
+	    ticks = pending.firstTime() - stats.totalTicks;
+	    charged = true;
+	}
+	else {
+	    // every tick is printed with -d i
+	    if (Lib.test(dbgInt))
+		return;
+
+	    ticks = (pending.firstTime() - stats.totalTicks - 1) /
+		enableTicks * enableTicks;
+	}
+
+	if (ticks > 0) {
+	    stats.kernelTicks += ticks;
+	    stats.totalTicks += ticks;
+	    stats.idleTicks += ticks;
+	}
+    }
+
     private void schedule(long when, String type, Runnable handler) {
 	Lib.assertTrue(when>0);
 	
 	long time = privilege.stats.totalTicks + when;
-	PendingInterrupt toOccur = new PendingInterrupt(time, type, handler);
 
 	Lib.debug(dbgInt,
 		  "Scheduling the " + type +
 		  " interrupt handler at time = " + time);
 
-	pending.add(toOccur);
+	pending.add(time, type, handler);
     }
 
     private void tick(boolean inKernelMode) {
+	// a hosted machine stopped by MachineHost dies here
+	TCB.checkStopped();
+
 	Stats stats = privilege.stats;
 
 	if (inKernelMode) {
-	    stats.kernelTicks += Stats.KernelTick;
-	    stats.totalTicks += Stats.KernelTick;
+	    stats.kernelTicks += enableTicks;
+	    stats.totalTicks += enableTicks;
+	    charged = false;
 	}
 	else {
 	    stats.userTicks += Stats.UserTick;
@@ -153,6 +226,27 @@ public final class Interrupt {
 	enabled = true;
     }
 
+    private long userTicksBeforeDue() {
+	// every tick is printed with -d i
+	if (Lib.test(dbgInt))
+	    return 0;
+
+	if (pending.isEmpty())
+	    return Long.MAX_VALUE;
+
+	long due = pending.firstTime() - privilege.stats.totalTicks;
+	return Math.max(0, (due - 1) / Stats.UserTick);
+    }
+
+    private void advanceUserTicks(long count) {
+	Stats stats = privilege.stats;
+
+	stats.userTicks += count * Stats.UserTick;
+	stats.totalTicks += count * Stats.UserTick;
+
+	enabled = true;
+    }
+
     private void checkIfDue() {
 	long time = privilege.stats.totalTicks;
 
@@ -164,24 +258,22 @@ public final class Interrupt {
 	if (pending.isEmpty())
 	    return;
 
-	if (((PendingInterrupt) pending.first()).time > time)
+	if (pending.firstTime() > time)
 	    return;
 
 	Lib.debug(dbgInt, "Invoking interrupt handlers at time = " + time);
 	
-	while (!pending.isEmpty() &&
-	       ((PendingInterrupt) pending.first()).time <= time) {
-	    PendingInterrupt next = (PendingInterrupt) pending.first();
-	    pending.remove(next);
-
-	    Lib.assertTrue(next.time <= time);
+	while (!pending.isEmpty() && pending.firstTime() <= time) {
+	    String type = pending.firstType();
+	    Runnable handler = pending.firstHandler();
+	    pending.removeFirst();
 
 	    if (privilege.processor != null)
 		privilege.processor.flushPipe();
 
-	    Lib.debug(dbgInt, "  " + next.type);
+	    Lib.debug(dbgInt, "  " + type);
 			
-	    next.handler.run();
+	    handler.run();
 	}
 
 	Lib.debug(dbgInt, "  (end of list)");
@@ -192,52 +284,222 @@ public final class Interrupt {
 			   + ", interrupts " + (enabled ? "on" : "off"));
 	System.out.println("Pending interrupts:");
 
-	for (Iterator i=pending.iterator(); i.hasNext(); ) {
-	    PendingInterrupt toOccur = (PendingInterrupt) i.next();
-	    System.out.println("  " + toOccur.type +
-			       ", scheduled at " + toOccur.time);
+	for (PendingQueue copy = new PendingQueue(pending); !copy.isEmpty();
+	     copy.removeFirst()) {
+	    System.out.println("  " + copy.firstType() +
+			       ", scheduled at " + copy.firstTime());
 	}
 
 	System.out.println("  (end of list)");
     }
 
-    private class PendingInterrupt implements Comparable {
-	PendingInterrupt(long time, String type, Runnable handler) {
-	    this.time = time;
-	    this.type = type;
-	    this.handler = handler;
-	    this.id = numPendingInterruptsCreated++;
+    /**
+     * Test whether the pending interrupt queue is working: interrupts due at
+     * the same time must occur in the order in which they were scheduled.
+     */
+    public static void selfTest() {
+	final int count = 100000;
+
+	PendingQueue queue = new PendingQueue();
+	Runnable handler = new Runnable() { public void run() {} };
+	Random random = new Random(0);
+
+	for (int i=0; i<count; i++)
+	    queue.add(random.nextInt(count/10), "" + i, handler);
+
+	long lastTime = -1;
+	int lastId = -1;
+	for (; !queue.isEmpty(); queue.removeFirst()) {
+	    int id = Integer.parseInt(queue.firstType());
+	    Lib.assertTrue(queue.firstTime() > lastTime ||
+			   (queue.firstTime() == lastTime && id > lastId));
+	    lastTime = queue.firstTime();
+	    lastId = id;
+	}
+    }
+
+    /**
+     * Print how long dispatching an interrupt and scheduling another one take
+     * with many interrupts pending. This is not part of any Nachos run; start
+     * it with <tt>java nachos.machine.Interrupt [pending]</tt>.
+     *
+     * @param	args	optionally, the number of pending interrupts, 100000
+     *			by default.
+     */
+    public static void main(String[] args) {
+	final int count = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+
+	PendingQueue queue = new PendingQueue();
+	Runnable handler = new Runnable() { public void run() {} };
+	Random random = new Random(0);
+
+	// keep count interrupts pending, rescheduling each as it occurs
+	for (int i=0; i<count; i++)
+	    queue.add(random.nextInt(count), "bench", handler);
+
+	for (int round=0; round<2; round++) {
+	    long start = System.nanoTime();
+	    for (int i=0; i<count*10; i++) {
+		long time = queue.firstTime();
+		queue.firstHandler().run();
+		queue.removeFirst();
+		queue.add(time + 1 + random.nextInt(count), "bench", handler);
+	    }
+	    long elapsed = System.nanoTime() - start;
+
+	    // the first round warms up the JVM
+	    if (round > 0)
+		System.out.println("Interrupt queue: " + count + " pending, " +
+				   elapsed / (count*10) + " ns per dispatch " +
+				   "and schedule");
+	}
+    }
+
+    /**
+     * The pending interrupts, ordered by time and then by the order in which
+     * they were scheduled. The queue is a binary heap kept in parallel arrays,
+     * so scheduling and dispatching an interrupt allocate nothing once the
+     * arrays are large enough.
+     */
+    private static class PendingQueue {
+	PendingQueue() {
+	    times = new long[initialCapacity];
+	    ids = new long[initialCapacity];
+	    types = new String[initialCapacity];
+	    handlers = new Runnable[initialCapacity];
+	}
+
+	/** Copy another queue, so it can be emptied to list it in order. */
+	PendingQueue(PendingQueue queue) {
+	    times = queue.times.clone();
+	    ids = queue.ids.clone();
+	    types = queue.types.clone();
+	    handlers = queue.handlers.clone();
+	    size = queue.size;
+	    numCreated = queue.numCreated;
+	}
+
+	int size() {
+	    return size;
+	}
+
+	boolean isEmpty() {
+	    return size == 0;
+	}
+
+	long firstTime() {
+	    Lib.assertTrue(size > 0);
+	    return times[0];
+	}
+
+	String firstType() {
+	    Lib.assertTrue(size > 0);
+	    return types[0];
+	}
+
+	Runnable firstHandler() {
+	    Lib.assertTrue(size > 0);
+	    return handlers[0];
+	}
+
+	void add(long time, String type, Runnable handler) {
+	    if (size == times.length) {
+		int capacity = size * 2;
+		times = Arrays.copyOf(times, capacity);
+		ids = Arrays.copyOf(ids, capacity);
+		types = Arrays.copyOf(types, capacity);
+		handlers = Arrays.copyOf(handlers, capacity);
+	    }
+
+	    long id = numCreated++;
+
+	    // sift the hole up from the end to where the interrupt belongs
+	    int hole = size++;
+	    while (hole > 0) {
+		int parent = (hole - 1) / 2;
+		if (!before(time, id, parent))
+		    break;
+		move(parent, hole);
+		hole = parent;
+	    }
+
+	    set(hole, time, id, type, handler);
+	}
+
+	void removeFirst() {
+	    Lib.assertTrue(size > 0);
+
+	    int last = --size;
+	    long time = times[last];
+	    long id = ids[last];
+	    String type = types[last];
+	    Runnable handler = handlers[last];
+	    types[last] = null;
+	    handlers[last] = null;
+
+	    if (last == 0)
+		return;
+
+	    // sift the hole down from the root to where the last belongs
+	    int hole = 0;
+	    while (true) {
+		int child = hole*2 + 1;
+		if (child >= size)
+		    break;
+		if (child+1 < size && before(times[child+1], ids[child+1], child))
+		    child++;
+		if (!before(times[child], ids[child], time, id))
+		    break;
+		move(child, hole);
+		hole = child;
+	    }
+
+	    set(hole, time, id, type, handler);
+	}
+
+	private boolean before(long time, long id, int index) {
+	    return before(time, id, times[index], ids[index]);
 	}
 
-	public int compareTo(Object o) {
-	    PendingInterrupt toOccur = (PendingInterrupt) o;
+	private static boolean before(long time1, long id1,
+				      long time2, long id2) {
+	    return time1 < time2 || (time1 == time2 && id1 < id2);
+	}
 
-	    // can't return 0 for unequal objects, so check all fields
-	    if (time < toOccur.time)
-		return -1;
-	    else if (time > toOccur.time)
-		return 1;
-	    else if (id < toOccur.id)
-		return -1;
-	    else if (id > toOccur.id)
-		return 1;
-	    else
-		return 0;
+	private void move(int from, int to) {
+	    set(to, times[from], ids[from], types[from], handlers[from]);
 	}
 
-	long time;
-	String type;
-	Runnable handler;
+	private void set(int index, long time, long id, String type,
+			 Runnable handler) {
+	    times[index] = time;
+	    ids[index] = id;
+	    types[index] = type;
+	    handlers[index] = handler;
+	}
+
+	private long[] times;
+	private long[] ids;
+	private String[] types;
+	private Runnable[] handlers;
+	private int size = 0;
+
+	/** The number of interrupts ever added, used to order equal times. */
+	private long numCreated = 0;
 
-	private long id;
+	private static final int initialCapacity = 16;
     }
-    
-    private long numPendingInterruptsCreated = 0;
 
     private Privilege privilege;
 
     private boolean enabled;
-    private TreeSet<PendingInterrupt> pending;
+    private PendingQueue pending;
+
+    private CostModel costs;
+    /** The cost of enabling interrupts. */
+    private int enableTicks;
+    /** Whether the kernel was charged since interrupts were last checked. */
+    private boolean charged = false;
 
     private static final char dbgInt = 'i';
 
@@ -249,5 +511,13 @@ public final class Interrupt {
 	public void tick(boolean inKernelMode) {
 	    Interrupt.this.tick(inKernelMode);
 	}
+
+	public long userTicksBeforeDue() {
+	    return Interrupt.this.userTicksBeforeDue();
+	}
+
+	public void advanceUserTicks(long count) {
+	    Interrupt.this.advanceUserTicks(count);
+	}
     }
 }
@@ -0,0 +1,418 @@
+// PART OF THE MACHINE SIMULATION. DO NOT CHANGE.
+
+package nachos.machine;
+
+import nachos.security.*;
+import nachos.ag.*;
+import nachos.threads.KThread;
+
+import java.util.StringTokenizer;
+
+/**
+ * Delivers the notifications the kernel and the machine give about threads,
+ * timer interrupts, exceptions, program loading and packets to whoever has
+ * subscribed to them: the autograder, and any listeners named by
+ * <tt>KernelEvents.listeners</tt>.
+ *
+ * <p>
+ * A listener is only subscribed to the events whose methods its class
+ * overrides, and an event nobody is subscribed to costs an empty loop. In
+ * particular, the timer only schedules the extra interrupt that notifies
+ * listeners of timer interrupts while somebody listens for them.
+ *
+ * <p>
+ * The autograder is always subscribed to <tt>runningThread()</tt> and
+ * <tt>finishingCurrentThread()</tt>, through which it authorizes TCB context
+ * switches and destruction, and to the other events whose methods its class
+ * overrides.
+ */
+public final class KernelEvents {
+	/**
+	 * Allocate a new event bus with no subscribers.
+	 *
+	 * @param privilege
+	 *            encapsulates privileged access to the Nachos machine.
+	 */
+	KernelEvents(Privilege privilege) {
+		this.privilege = privilege;
+
+		for (int i = 0; i < numEvents; i++)
+			subscribers[i] = new Listener[0];
+	}
+
+	/**
+	 * Subscribe the autograder, and then the listeners named by
+	 * <tt>KernelEvents.listeners</tt>. Called by <tt>Machine</tt> once the
+	 * autograder has been created.
+	 *
+	 * @param autoGrader
+	 *            the autograder.
+	 */
+	void subscribeAll(AutoGrader autoGrader) {
+		GraderListener grader = new GraderListener(autoGrader);
+		for (int i = 0; i < numEvents; i++) {
+			if (i == eventRunningThread || i == eventFinishingCurrentThread
+					|| overrides(autoGrader.getClass(), AutoGrader.class, graderParameters[i], i))
+				add(i, grader);
+		}
+
+		String listeners = Config.getString("KernelEvents.listeners");
+		if (listeners != null) {
+			StringTokenizer st = new StringTokenizer(listeners, ", \t");
+			while (st.hasMoreTokens())
+				subscribe((Listener) Lib.constructObject(st.nextToken()));
+		}
+	}
+
+	/**
+	 * Subscribe the specified listener to every event whose method its class
+	 * overrides. Listeners are notified in the order they subscribed.
+	 *
+	 * @param listener
+	 *            the listener to subscribe.
+	 */
+	public void subscribe(Listener listener) {
+		for (int i = 0; i < numEvents; i++) {
+			if (overrides(listener.getClass(), Listener.class, listenerParameters[i], i))
+				add(i, listener);
+		}
+	}
+
+	/**
+	 * Notify the subscribers that the specified thread is the idle thread.
+	 * <tt>KThread.createIdleThread()</tt> <i>must</i> call this method before
+	 * forking the idle thread.
+	 *
+	 * @param idleThread
+	 *            the idle thread.
+	 */
+	public void setIdleThread(KThread idleThread) {
+		Listener[] listeners = subscribers[eventSetIdleThread];
+		for (int i = 0; i < listeners.length; i++)
+			listeners[i].setIdleThread(idleThread);
+	}
+
+	/**
+	 * Notify the subscribers that the specified thread has moved to the ready
+	 * state. <tt>KThread.ready()</tt> <i>must</i> call this method before
+	 * returning.
+	 *
+	 * @param thread
+	 *            the thread that has been added to the ready set.
+	 */
+	public void readyThread(KThread thread) {
+		Listener[] listeners = subscribers[eventReadyThread];
+		for (int i = 0; i < listeners.length; i++)
+			listeners[i].readyThread(thread);
+	}
+
+	/**
+	 * Notify the subscribers that the specified thread is now running.
+	 * <tt>KThread.restoreState()</tt> <i>must</i> call this method before
+	 * returning.
+	 *
+	 * @param thread
+	 *            the thread that is now running.
+	 */
+	public void runningThread(KThread thread) {
+		Listener[] listeners = subscribers[eventRunningThread];
+		for (int i = 0; i < listeners.length; i++)
+			listeners[i].runningThread(thread);
+	}
+
+	/**
+	 * Notify the subscribers that the current thread has finished.
+	 * <tt>KThread.finish()</tt> <i>must</i> call this method before putting
+	 * the thread to sleep and scheduling its TCB to be destroyed.
+	 */
+	public void finishingCurrentThread() {
+		Listener[] listeners = subscribers[eventFinishingCurrentThread];
+		for (int i = 0; i < listeners.length; i++)
+			listeners[i].finishingCurrentThread();
+	}
+
+	/**
+	 * Test whether anybody listens for timer interrupts.
+	 *
+	 * @return <tt>true</tt> if <tt>timerInterrupt()</tt> has subscribers.
+	 */
+	boolean hasTimerListeners() {
+		return subscribers[eventTimerInterrupt].length > 0;
+	}
+
+	/**
+	 * Notify the subscribers that a timer interrupt occurred and was handled.
+	 * Called by the timer.
+	 *
+	 * @param time
+	 *            the time at which the timer interrupt was issued.
+	 */
+	void timerInterrupt(long time) {
+		Listener[] listeners = subscribers[eventTimerInterrupt];
+		for (int i = 0; i < listeners.length; i++)
+			listeners[i].timerInterrupt(time);
+	}
+
+	/**
+	 * Notify the subscribers that the processor raised an exception. Called by
+	 * the processor before it invokes the kernel's exception handler.
+	 *
+	 * @return <tt>true</tt> if the kernel exception handler should be called,
+	 *         which is when no subscriber returned <tt>false</tt>.
+	 */
+	boolean exceptionHandler() {
+		Listener[] listeners = subscribers[eventExceptionHandler];
+		for (int i = 0; i < listeners.length; i++) {
+			if (!listeners[i].exceptionHandler())
+				return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Notify the subscribers that <tt>Processor.run()</tt> was invoked.
+	 */
+	void runProcessor() {
+		Listener[] listeners = subscribers[eventRunProcessor];
+		for (int i = 0; i < listeners.length; i++)
+			listeners[i].runProcessor();
+	}
+
+	/**
+	 * Ask the subscribers for a COFF loader for the specified file.
+	 *
+	 * @param file
+	 *            the executable file being loaded.
+	 * @return the loader returned by the first subscriber that returned one,
+	 *         or <tt>null</tt> to use the default loader.
+	 */
+	Coff createLoader(OpenFile file) {
+		Listener[] listeners = subscribers[eventCreateLoader];
+		for (int i = 0; i < listeners.length; i++) {
+			Coff coff = listeners[i].createLoader(file);
+			if (coff != null)
+				return coff;
+		}
+
+		return null;
+	}
+
+	/**
+	 * Ask the subscribers for permission to send a packet.
+	 *
+	 * @return <tt>true</tt> if no subscriber returned <tt>false</tt>.
+	 */
+	boolean canSendPacket() {
+		Listener[] listeners = subscribers[eventCanSendPacket];
+		for (int i = 0; i < listeners.length; i++) {
+			if (!listeners[i].canSendPacket())
+				return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Ask the subscribers for permission to receive a packet.
+	 *
+	 * @return <tt>true</tt> if no subscriber returned <tt>false</tt>.
+	 */
+	boolean canReceivePacket() {
+		Listener[] listeners = subscribers[eventCanReceivePacket];
+		for (int i = 0; i < listeners.length; i++) {
+			if (!listeners[i].canReceivePacket())
+				return false;
+		}
+
+		return true;
+	}
+
+	private void add(int event, Listener listener) {
+		Listener[] listeners = new Listener[subscribers[event].length + 1];
+		System.arraycopy(subscribers[event], 0, listeners, 0, listeners.length - 1);
+		listeners[listeners.length - 1] = listener;
+		subscribers[event] = listeners;
+	}
+
+	/**
+	 * Test whether <i>cls</i> overrides the method of <i>base</i> for the
+	 * specified event.
+	 */
+	private static boolean overrides(Class<?> cls, Class<?> base, Class<?>[] parameters, int event) {
+		try {
+			return cls.getMethod(eventNames[event], parameters).getDeclaringClass() != base;
+		} catch (NoSuchMethodException e) {
+			Lib.assertNotReached(e.toString());
+			return false;
+		}
+	}
+
+	/**
+	 * Receives the events it subscribes to. Every method does nothing, or
+	 * lets the kernel proceed, unless a subclass overrides it, and a listener
+	 * only receives the events whose methods it overrides.
+	 */
+	public static abstract class Listener {
+		/**
+		 * Called when the idle thread is created.
+		 *
+		 * @param idleThread
+		 *            the idle thread.
+		 */
+		public void setIdleThread(KThread idleThread) {
+		}
+
+		/**
+		 * Called when a thread moves to the ready state.
+		 *
+		 * @param thread
+		 *            the thread that has been added to the ready set.
+		 */
+		public void readyThread(KThread thread) {
+		}
+
+		/**
+		 * Called when a thread starts running, on every context switch.
+		 *
+		 * @param thread
+		 *            the thread that is now running.
+		 */
+		public void runningThread(KThread thread) {
+		}
+
+		/**
+		 * Called when the current thread finishes.
+		 */
+		public void finishingCurrentThread() {
+		}
+
+		/**
+		 * Called one tick after every timer interrupt.
+		 *
+		 * @param time
+		 *            the time at which the timer interrupt was issued.
+		 */
+		public void timerInterrupt(long time) {
+		}
+
+		/**
+		 * Called when the processor raises an exception.
+		 *
+		 * @return <tt>false</tt> to keep the kernel from handling it.
+		 */
+		public boolean exceptionHandler() {
+			return true;
+		}
+
+		/**
+		 * Called when <tt>Processor.run()</tt> is invoked.
+		 */
+		public void runProcessor() {
+		}
+
+		/**
+		 * Called when a COFF loader is constructed for a file.
+		 *
+		 * @param file
+		 *            the executable file being loaded.
+		 * @return a loader to use, or <tt>null</tt> to use the default.
+		 */
+		public Coff createLoader(OpenFile file) {
+			return null;
+		}
+
+		/**
+		 * Called before a packet is sent.
+		 *
+		 * @return <tt>false</tt> to drop the packet.
+		 */
+		public boolean canSendPacket() {
+			return true;
+		}
+
+		/**
+		 * Called before a packet is delivered to the kernel.
+		 *
+		 * @return <tt>false</tt> to drop the packet.
+		 */
+		public boolean canReceivePacket() {
+			return true;
+		}
+	}
+
+	/**
+	 * Forwards events to the autograder, with the privilege that proves they
+	 * come from the machine.
+	 */
+	private class GraderListener extends Listener {
+		GraderListener(AutoGrader autoGrader) {
+			this.autoGrader = autoGrader;
+		}
+
+		public void setIdleThread(KThread idleThread) {
+			autoGrader.setIdleThread(idleThread);
+		}
+
+		public void readyThread(KThread thread) {
+			autoGrader.readyThread(thread);
+		}
+
+		public void runningThread(KThread thread) {
+			autoGrader.runningThread(thread);
+		}
+
+		public void finishingCurrentThread() {
+			autoGrader.finishingCurrentThread();
+		}
+
+		public void timerInterrupt(long time) {
+			autoGrader.timerInterrupt(privilege, time);
+		}
+
+		public boolean exceptionHandler() {
+			return autoGrader.exceptionHandler(privilege);
+		}
+
+		public void runProcessor() {
+			autoGrader.runProcessor(privilege);
+		}
+
+		public Coff createLoader(OpenFile file) {
+			return autoGrader.createLoader(file);
+		}
+
+		public boolean canSendPacket() {
+			return autoGrader.canSendPacket(privilege);
+		}
+
+		public boolean canReceivePacket() {
+			return autoGrader.canReceivePacket(privilege);
+		}
+
+		private AutoGrader autoGrader;
+	}
+
+	private Privilege privilege;
+
+	/** The subscribers to each event, in the order they subscribed. */
+	private Listener[][] subscribers = new Listener[numEvents][];
+
+	private static final int eventSetIdleThread = 0, eventReadyThread = 1, eventRunningThread = 2,
+			eventFinishingCurrentThread = 3, eventTimerInterrupt = 4, eventExceptionHandler = 5,
+			eventRunProcessor = 6, eventCreateLoader = 7, eventCanSendPacket = 8, eventCanReceivePacket = 9;
+	private static final int numEvents = 10;
+
+	private static final String[] eventNames = { "setIdleThread", "readyThread", "runningThread",
+			"finishingCurrentThread", "timerInterrupt", "exceptionHandler", "runProcessor", "createLoader",
+			"canSendPacket", "canReceivePacket" };
+
+	/** The parameters of each event's method in <tt>Listener</tt>. */
+	private static final Class<?>[][] listenerParameters = { { KThread.class }, { KThread.class },
+			{ KThread.class }, {}, { long.class }, {}, {}, { OpenFile.class }, {}, {} };
+
+	/** The parameters of each event's method in <tt>AutoGrader</tt>. */
+	private static final Class<?>[][] graderParameters = { { KThread.class }, { KThread.class },
+			{ KThread.class }, {}, { Privilege.class, long.class }, { Privilege.class }, { Privilege.class },
+			{ OpenFile.class }, { Privilege.class }, { Privilege.class } };
+}
@@ -172,10 +172,26 @@ public final class Lib {
 			if (c >= 0 && c < 0x80)
 				debugFlags[(int) c] = true;
 		}
+
+		debugFlagsVersion++;
+	}
+
+	/**
+	 * Return a number that changes every time <tt>enableDebugFlags()</tt> is
+	 * called. Code that decides once which debug output it must produce can
+	 * compare this number to the one it decided with, instead of testing the
+	 * flags again on every operation.
+	 *
+	 * @return the current version of the debug flags.
+	 */
+	public static int getDebugFlagsVersion() {
+		return debugFlagsVersion;
 	}
 
 	/** Debug flags specified on the command line. */
 	private static boolean debugFlags[];
+	/** Incremented each time the debug flags are changed. */
+	private static int debugFlagsVersion = 0;
 
 	/**
 	 * Read a file, verifying that the requested number of bytes is read, and
@@ -518,7 +534,8 @@ public final class Lib {
 
 	/**
 	 * Load and return the named class, or return <tt>null</tt> if the class
-	 * could not be loaded.
+	 * could not be loaded. Classes are loaded by the class loader that loaded
+	 * Nachos, which has its own loader when run by <tt>MachineHost</tt>.
 	 *
 	 * @param className
 	 *            the name of the class to load.
@@ -526,7 +543,7 @@ public final class Lib {
 	 */
 	public static Class tryLoadClass(String className) {
 		try {
-			return ClassLoader.getSystemClassLoader().loadClass(className);
+			return Lib.class.getClassLoader().loadClass(className);
 		} catch (Throwable e) {
 			return null;
 		}
@@ -541,7 +558,7 @@ public final class Lib {
 	 */
 	public static Class loadClass(String className) {
 		try {
-			return ClassLoader.getSystemClassLoader().loadClass(className);
+			return Lib.class.getClassLoader().loadClass(className);
 		} catch (Throwable e) {
 			Machine.terminate(e);
 			return null;
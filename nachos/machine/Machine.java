@@ -6,6 +6,7 @@ import nachos.security.*;
 import nachos.ag.*;
 
 import java.io.File;
+import java.util.function.IntConsumer;
 
 /**
  * The master class of the simulated machine. Processes command line arguments,
@@ -30,6 +31,7 @@ public final class Machine {
 	private static FileSystem stubFileSystem = null;
 	private static NetworkLink networkLink = null;
 	private static AutoGrader autoGrader = null;
+	private static KernelEvents events = null;
 	private static NachosSecurityManager securityManager;
 	private static Privilege privilege;
 	private static Stats stats = new Stats();
@@ -42,6 +44,40 @@ public final class Machine {
 	 *            the command line arguments.
 	 */
 	public static void main(final String[] args) {
+		start(args, null);
+	}
+
+	/**
+	 * Entry point of a machine run by <tt>MachineHost</tt>, which runs several
+	 * machines in one JVM, each with its own copy of the Nachos classes. Same
+	 * as <tt>main()</tt>, except that the security manager is not installed,
+	 * since a JVM has only one, and exiting Nachos calls <tt>exitHandler</tt>
+	 * instead of terminating the JVM.
+	 *
+	 * @param args
+	 *            the command line arguments.
+	 * @param exitHandler
+	 *            called with the exit status when Nachos exits.
+	 */
+	public static void host(String[] args, IntConsumer exitHandler) {
+		Lib.assertTrue(exitHandler != null);
+
+		start(args, exitHandler);
+	}
+
+	/**
+	 * Stop a machine started by <tt>host()</tt> that has not exited, such as
+	 * one that has run for too long. Its threads die the next time they wake
+	 * up or the simulated clock ticks, and its exit handler is not called. May
+	 * be called from any Java thread.
+	 */
+	public static void stop() {
+		Lib.assertTrue(securityManager != null && System.getSecurityManager() != securityManager);
+
+		TCB.stopAll();
+	}
+
+	private static void start(String[] args, final IntConsumer exitHandler) {
 		System.out.print("STEP--> nachos 5.0j initializing...(In Machine.java)\n");
 		Lib.assertTrue(Machine.args == null);
 
@@ -75,11 +111,22 @@ public final class Machine {
 		TCB.givePrivilege(privilege);
 		privilege.stats = stats;
 
-		securityManager.enable();
+		if (exitHandler == null) {
+			securityManager.enable();
+		} else {
+			securityManager.setExitHandler(new IntConsumer() {
+				public void accept(int status) {
+					exitHandler.accept(status);
+					TCB.stopAll();
+				}
+			});
+		}
 
 		createDevices();
 		checkUserClasses();
 		autoGrader = (AutoGrader) Lib.constructObject(autoGraderClassName);
+		events = new KernelEvents(privilege);
+		events.subscribeAll(autoGrader);
 
 		new TCB().start(new Runnable() {
 			public void run() {
@@ -118,11 +165,13 @@ public final class Machine {
 	}
 
 	/**
-	 * Print stats, and terminate Nachos.
+	 * Print stats and any guest profiles, and terminate Nachos.
 	 */
 	public static void halt() {
 		System.out.print("Machine halting!\n\n");
 		stats.print();
+		if (processor != null && processor.profiler() != null)
+			processor.profiler().print();
 		terminate();
 	}
 
@@ -370,6 +419,16 @@ public final class Machine {
 		return autoGrader;
 	}
 
+	/**
+	 * Return the event bus through which the kernel and the machine notify the
+	 * autograder and other listeners.
+	 *
+	 * @return the event bus.
+	 */
+	public static KernelEvents events() {
+		return events;
+	}
+
 	/**
 	 * Return the name of the shell program that a user-programming kernel must
 	 * run. Make sure <tt>UserKernel.run()</tt> <i>always</i> uses this method
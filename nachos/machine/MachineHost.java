@@ -0,0 +1,341 @@
+// PART OF THE MACHINE SIMULATION. DO NOT CHANGE.
+
+package nachos.machine;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.reflect.InvocationTargetException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.StringTokenizer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntConsumer;
+
+/**
+ * Runs a batch of Nachos machines in one JVM, several at a time, so that the
+ * batch pays for starting the JVM once instead of once per run.
+ *
+ * <p>
+ * The machine, the kernel and the autograder all keep their state in static
+ * fields, so every machine loads its own copy of the Nachos classes, with a
+ * class loader of its own, and starts through <tt>Machine.host()</tt>. The
+ * machines share only what the JVM has one of:
+ *
+ * <ul>
+ * <li>The security manager, so hosted machines run without one.
+ * <li>The current directory, so every run is started from the directory the
+ * host was started in; use <tt>-[]</tt> to give runs different config files.
+ * <li><tt>System.in</tt>, so hosted programs should not read the console.
+ * <li><tt>System.out</tt> and <tt>System.err</tt>. The host collects the
+ * output of each machine's threads, and prints it when the machine exits.
+ * </ul>
+ *
+ * <p>
+ * When a machine exits, its threads die, so that its classes and memory can
+ * be freed. A machine that runs for longer than the time limit set with
+ * <tt>-t</tt> is reported as timed out and stopped, and its slot goes to the
+ * next run. Without a time limit, a machine that never exits keeps its slot;
+ * note that the kernels of the projects do not halt by themselves once their
+ * programs have finished. Errors found before a machine starts, such as a bad
+ * config file, still terminate the whole JVM.
+ *
+ * <p>
+ * Usage: <tt>java nachos.machine.MachineHost [-p &lt;machines&gt;] [-t
+ * &lt;seconds&gt;] &lt;runs file&gt;</tt>, where each line of the runs file
+ * holds the command line arguments of one run, <tt>-p</tt> sets how many
+ * machines run at once (normally the number of host processors), and
+ * <tt>-t</tt> sets the time limit of each run.
+ */
+public final class MachineHost {
+	private MachineHost() {
+	}
+
+	/**
+	 * Host entry point.
+	 *
+	 * @param args
+	 *            the command line arguments.
+	 */
+	public static void main(String[] args) {
+		int parallel = Runtime.getRuntime().availableProcessors();
+		String runsFileName = null;
+
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-p") && i + 1 < args.length) {
+				try {
+					parallel = Integer.parseInt(args[++i]);
+				} catch (NumberFormatException e) {
+					usage();
+				}
+			} else if (args[i].equals("-t") && i + 1 < args.length) {
+				try {
+					timeLimit = Integer.parseInt(args[++i]);
+				} catch (NumberFormatException e) {
+					usage();
+				}
+			} else if (runsFileName == null && !args[i].startsWith("-")) {
+				runsFileName = args[i];
+			} else {
+				usage();
+			}
+		}
+
+		if (runsFileName == null || parallel < 1 || timeLimit < 0)
+			usage();
+
+		final ArrayList<String[]> runs = readRuns(runsFileName);
+		final URL[] classPath = getClassPath();
+
+		out = System.out;
+		PrintStream routed = new PrintStream(new OutputRouter(), true);
+		System.setOut(routed);
+		System.setErr(routed);
+
+		final AtomicInteger nextRun = new AtomicInteger(0);
+		Thread[] workers = new Thread[Math.min(parallel, runs.size())];
+		long start = System.nanoTime();
+
+		for (int i = 0; i < workers.length; i++) {
+			workers[i] = new Thread(new Runnable() {
+				public void run() {
+					int run;
+					while ((run = nextRun.getAndIncrement()) < runs.size())
+						new HostedMachine(run + 1, runs.get(run)).run(classPath);
+				}
+			}, "machine host " + i);
+			workers[i].start();
+		}
+
+		for (int i = 0; i < workers.length; i++) {
+			while (workers[i].isAlive()) {
+				try {
+					workers[i].join();
+				} catch (InterruptedException e) {
+				}
+			}
+		}
+
+		out.println("Ran " + runs.size() + " machines, " + workers.length + " at a time, in "
+				+ (System.nanoTime() - start) / 1000000 + " ms");
+		System.exit(0);
+	}
+
+	private static void usage() {
+		System.err.println("usage: java nachos.machine.MachineHost [-p <machines>] [-t <seconds>] <runs file>");
+		System.exit(1);
+	}
+
+	/**
+	 * Read the command line arguments of each run, one run per line. Blank
+	 * lines and lines starting with <tt>#</tt> are skipped.
+	 */
+	private static ArrayList<String[]> readRuns(String fileName) {
+		ArrayList<String[]> runs = new ArrayList<String[]>();
+
+		try {
+			BufferedReader reader = new BufferedReader(new FileReader(fileName));
+			try {
+				String line;
+				while ((line = reader.readLine()) != null) {
+					StringTokenizer st = new StringTokenizer(line);
+					if (!st.hasMoreTokens() || line.trim().startsWith("#"))
+						continue;
+
+					String[] args = new String[st.countTokens()];
+					for (int i = 0; i < args.length; i++)
+						args[i] = st.nextToken();
+					runs.add(args);
+				}
+			} finally {
+				reader.close();
+			}
+		} catch (IOException e) {
+			System.err.println("Error reading " + fileName + ": " + e);
+			System.exit(1);
+		}
+
+		return runs;
+	}
+
+	/**
+	 * Return the class path of the host, from which every machine loads its
+	 * own copy of the Nachos classes.
+	 */
+	private static URL[] getClassPath() {
+		StringTokenizer st = new StringTokenizer(System.getProperty("java.class.path"), File.pathSeparator);
+		URL[] classPath = new URL[st.countTokens()];
+
+		try {
+			for (int i = 0; i < classPath.length; i++)
+				classPath[i] = new File(st.nextToken()).toURI().toURL();
+		} catch (MalformedURLException e) {
+			Lib.assertNotReached(e.toString());
+		}
+
+		return classPath;
+	}
+
+	/**
+	 * One run of the batch.
+	 */
+	private static class HostedMachine implements IntConsumer {
+		HostedMachine(int number, String[] args) {
+			this.number = number;
+			this.args = args;
+
+			group = new ThreadGroup("machine " + number);
+		}
+
+		/**
+		 * Start the machine, wait for it to exit or run out of time, and print
+		 * its output.
+		 */
+		void run(URL[] classPath) {
+			final ClassLoader loader = new URLClassLoader(classPath, ClassLoader.getSystemClassLoader().getParent());
+
+			// forget the machines that have stopped and whose threads are gone
+			for (ThreadGroup stopped : outputs.keySet()) {
+				if (outputs.get(stopped) == discard && stopped.activeCount() == 0)
+					outputs.remove(stopped);
+			}
+
+			outputs.put(group, output);
+			long start = System.nanoTime();
+
+			// the machine's threads are created by this one, so they inherit
+			// its group and do not keep the JVM alive
+			Thread thread = new Thread(group, new Runnable() {
+				public void run() {
+					try {
+						loader.loadClass("nachos.machine.Machine").getMethod("host", String[].class, IntConsumer.class)
+								.invoke(null, args, HostedMachine.this);
+					} catch (InvocationTargetException e) {
+						// the machine's first thread dies when the machine stops
+						if (e.getCause() instanceof ThreadDeath)
+							return;
+
+						e.getCause().printStackTrace();
+						accept(-1);
+					} catch (Exception e) {
+						e.printStackTrace();
+						accept(-1);
+					}
+				}
+			}, "machine " + number);
+			thread.setDaemon(true);
+			thread.start();
+
+			long deadline = start + timeLimit * 1000000000L;
+			boolean timedOut = false;
+
+			while (exited.getCount() > 0 && !timedOut) {
+				try {
+					if (timeLimit == 0)
+						exited.await();
+					else
+						timedOut = !exited.await(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+				} catch (InterruptedException e) {
+				}
+			}
+
+			long elapsed = (System.nanoTime() - start) / 1000000;
+
+			if (timedOut) {
+				try {
+					loader.loadClass("nachos.machine.Machine").getMethod("stop").invoke(null);
+				} catch (Exception e) {
+					// it has not booted yet, and is left to finish on its own
+				}
+			}
+
+			// drop anything written by the stopped machine from now on
+			outputs.put(group, discard);
+
+			StringBuffer command = new StringBuffer();
+			for (int i = 0; i < args.length; i++)
+				command.append(' ').append(args[i]);
+
+			synchronized (out) {
+				out.println("=== machine " + number + ":" + command);
+				out.write(output.toByteArray(), 0, output.size());
+				if (timedOut)
+					out.println("=== machine " + number + ": timed out after " + elapsed + " ms");
+				else
+					out.println("=== machine " + number + ": exit status " + exitStatus + ", " + elapsed + " ms");
+			}
+		}
+
+		/**
+		 * Called by the machine when it exits.
+		 */
+		public synchronized void accept(int status) {
+			if (exited.getCount() == 0)
+				return;
+
+			exitStatus = status;
+			exited.countDown();
+		}
+
+		private int number;
+		private String[] args;
+		private ThreadGroup group;
+		private ByteArrayOutputStream output = new ByteArrayOutputStream();
+		private CountDownLatch exited = new CountDownLatch(1);
+		private volatile int exitStatus;
+	}
+
+	/**
+	 * Sends what a thread writes to the output of the machine whose group
+	 * contains it, or to the host's output if it belongs to no machine.
+	 */
+	private static class OutputRouter extends OutputStream {
+		public void write(int b) throws IOException {
+			target().write(b);
+		}
+
+		public void write(byte[] b, int off, int len) throws IOException {
+			target().write(b, off, len);
+		}
+
+		public void flush() throws IOException {
+			target().flush();
+		}
+
+		private OutputStream target() {
+			for (ThreadGroup group = Thread.currentThread().getThreadGroup(); group != null; group = group
+					.getParent()) {
+				OutputStream output = outputs.get(group);
+				if (output != null)
+					return output;
+			}
+
+			return out;
+		}
+	}
+
+	/** The time limit of each run in seconds, or 0 for none. */
+	private static int timeLimit = 0;
+
+	/** The host's own standard output. */
+	private static PrintStream out;
+	/** The output of each running machine, by thread group. */
+	private static ConcurrentHashMap<ThreadGroup, OutputStream> outputs = new ConcurrentHashMap<ThreadGroup, OutputStream>();
+
+	private static final OutputStream discard = new OutputStream() {
+		public void write(int b) {
+		}
+
+		public void write(byte[] b, int off, int len) {
+		}
+	};
+}
@@ -164,7 +164,7 @@ public class NetworkLink {
 	Lib.assertTrue(incomingPacket == null);
 
 	if (incomingBytes != null) {
-	    if (Machine.autoGrader().canReceivePacket(privilege)) {
+	    if (Machine.events().canReceivePacket()) {
 		try {
 		    incomingPacket = new Packet(incomingBytes);
 
@@ -248,7 +248,7 @@ public class NetworkLink {
 	Lib.assertTrue(outgoingPacket != null);
 
 	// randomly drop packets, according to its reliability
-	if (Machine.autoGrader().canSendPacket(privilege) &&
+	if (Machine.events().canSendPacket() &&
 	    Lib.random() <= reliability) {
 	    // ok, no drop
 	    privilege.doPrivileged(new Runnable() {
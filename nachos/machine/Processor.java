@@ -4,6 +4,10 @@ package nachos.machine;
 
 import nachos.security.*;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
 /**
  * The <tt>Processor</tt> class simulates a MIPS processor that supports a
  * subset of the R3000 instruction set. Specifically, the processor lacks all
@@ -45,6 +49,24 @@ public final class Processor {
 			registers[i] = 0;
 
 		mainMemory = new byte[pageSize * numPhysPages];
+		memoryView = ByteBuffer.wrap(mainMemory).order(ByteOrder.LITTLE_ENDIAN);
+		decodeCache = new DecodedInstruction[(pageSize / 4) * numPhysPages];
+
+		jit = Config.getBoolean("Processor.jit", false);
+		if (jit) {
+			blockCache = new TranslatedBlock[(pageSize / 4) * numPhysPages];
+			blockCounts = new int[(pageSize / 4) * numPhysPages];
+		}
+
+		for (int i = 0; i < exceptionNames.length; i++)
+			exceptions[i] = new MipsException(i);
+
+		instructionCounts = privilege.stats.numInstructions;
+		exceptionCounts = privilege.stats.numExceptions;
+
+		int profileInterval = Config.getInteger("Processor.profileInterval", 0);
+		if (profileInterval > 0)
+			profiler = new Profiler(this, profileInterval);
 
 		if (usingTLB) {
 			translations = new TranslationEntry[tlbSize];
@@ -88,19 +110,319 @@ public final class Processor {
 
 		registers[regNextPC] = registers[regPC] + 4;
 
-		Machine.autoGrader().runProcessor(privilege);
+		Machine.events().runProcessor();
 
 		Instruction inst = new Instruction();
 
 		while (true) {
+			// pick the loop matching the debug flags, and pick again whenever
+			// they change
+			debugFlagsVersion = Lib.getDebugFlagsVersion();
+			tracing = Lib.test(dbgProcessor) || Lib.test(dbgDisassemble) || Lib.test(dbgFullDisassemble);
+
+			if (tracing)
+				runTracing(inst);
+			else if (usingTLB)
+				runWithTLB(inst);
+			else
+				runWithPageTable(inst);
+		}
+	}
+
+	/**
+	 * Interpret instructions, printing the trace selected by the debug flags,
+	 * until the debug flags change.
+	 *
+	 * @param inst
+	 *            the interpreter.
+	 */
+	private void runTracing(Instruction inst) {
+		ticksBeforeDue = 0;
+
+		while (Lib.getDebugFlagsVersion() == debugFlagsVersion) {
 			try {
 				inst.run();
 			} catch (MipsException e) {
+				settleTicks();
+				e.handle();
+				ticksBeforeDue = 0;
+			}
+
+			tick();
+		}
+
+		settleTicks();
+	}
+
+	/**
+	 * Run instructions without any trace output using a page table, until the
+	 * debug flags change.
+	 *
+	 * @param inst
+	 *            the interpreter.
+	 */
+	private void runWithPageTable(Instruction inst) {
+		ticksBeforeDue = 0;
+
+		while (Lib.getDebugFlagsVersion() == debugFlagsVersion) {
+			try {
+				if (jit)
+					runTranslated(inst);
+				else
+					inst.run(fetchPageTable(registers[regPC]));
+			} catch (MipsException e) {
+				settleTicks();
+				e.handle();
+				// the kernel may have scheduled an interrupt
+				ticksBeforeDue = 0;
+			}
+
+			tick();
+		}
+
+		settleTicks();
+	}
+
+	/**
+	 * Run instructions without any trace output using the TLB, until the debug
+	 * flags change.
+	 *
+	 * @param inst
+	 *            the interpreter.
+	 */
+	private void runWithTLB(Instruction inst) {
+		ticksBeforeDue = 0;
+
+		while (Lib.getDebugFlagsVersion() == debugFlagsVersion) {
+			try {
+				if (jit)
+					runTranslated(inst);
+				else
+					inst.run(fetchTLB(registers[regPC]));
+			} catch (MipsException e) {
+				settleTicks();
 				e.handle();
+				// the kernel may have scheduled an interrupt
+				ticksBeforeDue = 0;
+			}
+
+			tick();
+		}
+
+		settleTicks();
+	}
+
+	/**
+	 * Advance the simulated time after a user instruction. As long as no
+	 * interrupt can become due, the ticks are only counted, and added to the
+	 * statistics together by <tt>settleTicks()</tt>; the tick that makes an
+	 * interrupt due is passed to the interrupt controller as usual. Kernel code
+	 * only runs inside an exception handler or an interrupt handler, so it
+	 * never sees the time before it is settled.
+	 *
+	 * <p>
+	 * If profiling is enabled, the instruction that reaches the next sample
+	 * also takes this path, and the profiler samples the PC after it.
+	 */
+	private void tick() {
+		if (ticksBeforeDue > 0) {
+			ticksBeforeDue--;
+			deferredTicks++;
+			return;
+		}
+
+		settleTicks();
+
+		Stats stats = privilege.stats;
+		if (profiler != null && stats.userTicks + Stats.UserTick >= nextSample) {
+			profiler.sample();
+			nextSample = stats.userTicks + Stats.UserTick + profiler.getInterval();
+		}
+
+		privilege.interrupt.tick(false);
+		ticksBeforeDue = privilege.interrupt.userTicksBeforeDue();
+
+		// stop deferring ticks at the next sample, too
+		if (profiler != null)
+			ticksBeforeDue = Math.min(ticksBeforeDue, Math.max(0, (nextSample - stats.userTicks - 1) / Stats.UserTick));
+	}
+
+	/**
+	 * Add the ticks counted by <tt>tick()</tt> to the simulated time.
+	 */
+	private void settleTicks() {
+		if (deferredTicks > 0) {
+			privilege.interrupt.advanceUserTicks(deferredTicks);
+			deferredTicks = 0;
+		}
+	}
+
+	/**
+	 * Execute the instructions at the current PC using the translation tier.
+	 * If a translated block starts at the current PC, run it; otherwise
+	 * interpret a single instruction, and translate the block starting there
+	 * once it has been reached <tt>jitThreshold</tt> times.
+	 *
+	 * <p>
+	 * Like <tt>Instruction.run()</tt>, this method leaves exactly one executed
+	 * instruction for the caller to advance the simulated time for.
+	 *
+	 * @param inst
+	 *            the interpreter to fall back to.
+	 * @exception MipsException
+	 *                if an instruction caused an exception.
+	 */
+	private void runTranslated(Instruction inst) throws MipsException {
+		int pc = registers[regPC];
+
+		// blocks are only entered at the start of a sequential run
+		if (registers[regNextPC] != pc + 4) {
+			inst.run();
+			return;
+		}
+
+		int paddr = translate(pc, 4, false, instructionTLB);
+		int index = paddr >> 2;
+
+		TranslatedBlock block = blockCache[index];
+		if (block != null && !block.isCurrent()) {
+			// the code was overwritten since it was translated
+			block = null;
+			blockCache[index] = null;
+			blockCounts[index] = 0;
+		}
+
+		if (block == null) {
+			if (++blockCounts[index] < jitThreshold) {
+				inst.run(paddr);
+				return;
+			}
+
+			block = translateBlock(paddr);
+			blockCache[index] = block;
+		}
+
+		if (block.ops.length == 0)
+			inst.run(paddr);
+		else
+			block.run(inst);
+	}
+
+	/**
+	 * Translate the basic block starting at the specified physical address. A
+	 * block ends before the first instruction that cannot be translated, at a
+	 * page boundary, or after the delay slot of the first branch or jump.
+	 *
+	 * @param paddr
+	 *            the physical address of the first instruction.
+	 * @return the translated block, which has no operations if the first
+	 *         instruction cannot be translated.
+	 */
+	private TranslatedBlock translateBlock(int paddr) {
+		int end = (paddr & ~(pageSize - 1)) + pageSize;
+
+		TranslatedOp[] ops = new TranslatedOp[(end - paddr) / 4];
+		int numOps = 0;
+
+		for (int address = paddr; address < end; address += 4) {
+			DecodedInstruction decoded = decodeWord(address, memoryView.getInt(address));
+			TranslatedOp op = translateOp(decoded);
+			if (op == null)
+				break;
+
+			if (!Lib.test(Mips.BRANCH, decoded.flags)) {
+				ops[numOps++] = op;
+				continue;
+			}
+
+			// a branch is only translated together with its delay slot
+			if (address + 4 < end) {
+				DecodedInstruction delaySlot = decodeWord(address + 4, memoryView.getInt(address + 4));
+				if (!Lib.test(Mips.BRANCH, delaySlot.flags)) {
+					TranslatedOp delayOp = translateOp(delaySlot);
+					if (delayOp != null) {
+						ops[numOps++] = op;
+						ops[numOps++] = delayOp;
+					}
+				}
 			}
+			break;
+		}
 
-			privilege.interrupt.tick(false);
+		TranslatedOp[] blockOps = new TranslatedOp[numOps];
+		System.arraycopy(ops, 0, blockOps, 0, numOps);
+
+		return new TranslatedBlock(paddr, blockOps);
+	}
+
+	/**
+	 * Translate a single decoded instruction.
+	 *
+	 * @param decoded
+	 *            the instruction to translate.
+	 * @return the translated operation, or <tt>null</tt> if this instruction
+	 *         must always be interpreted.
+	 */
+	private TranslatedOp translateOp(DecodedInstruction decoded) {
+		switch (decoded.operation) {
+		case Mips.ADD:
+		case Mips.SUB:
+		case Mips.MULT:
+		case Mips.DIV:
+		case Mips.SLL:
+		case Mips.SRA:
+		case Mips.SRL:
+		case Mips.SLT:
+		case Mips.AND:
+		case Mips.OR:
+		case Mips.NOR:
+		case Mips.XOR:
+		case Mips.LUI:
+		case Mips.MFLO:
+		case Mips.MFHI:
+		case Mips.MTLO:
+		case Mips.MTHI:
+			return new AluOp(decoded);
+
+		case Mips.JUMP:
+		case Mips.BEQ:
+		case Mips.BNE:
+		case Mips.BLEZ:
+		case Mips.BGTZ:
+		case Mips.BLTZ:
+		case Mips.BGEZ:
+			return new BranchOp(decoded);
+
+		case Mips.LOAD:
+			return new LoadOp(decoded);
+
+		case Mips.STORE:
+			return new StoreOp(decoded);
+
+		// syscalls, illegal instructions and unaligned loads and stores
+		default:
+			return null;
+		}
+	}
+
+	/**
+	 * Return the predecoded form of the instruction word at the specified
+	 * physical address, decoding it if it is not cached.
+	 *
+	 * @param paddr
+	 *            the physical address of the instruction.
+	 * @param value
+	 *            the instruction word stored at that address.
+	 * @return the decoded instruction.
+	 */
+	private DecodedInstruction decodeWord(int paddr, int value) {
+		DecodedInstruction decoded = decodeCache[paddr >> 2];
+		if (decoded == null || decoded.value != value) {
+			decoded = new DecodedInstruction(value);
+			decodeCache[paddr >> 2] = decoded;
 		}
+
+		return decoded;
 	}
 
 	/**
@@ -129,6 +451,8 @@ public final class Processor {
 
 		if (number != 0)
 			registers[number] = value;
+
+		contextVersion++;
 	}
 
 	/**
@@ -177,6 +501,9 @@ public final class Processor {
 		Lib.assertTrue(!usingTLB);
 
 		this.translations = pageTable;
+		instructionTLB.invalidate();
+		dataTLB.invalidate();
+		contextVersion++;
 	}
 
 	/**
@@ -221,6 +548,9 @@ public final class Processor {
 		Lib.assertTrue(number >= 0 && number < tlbSize);
 
 		translations[number] = new TranslationEntry(entry);
+		instructionTLB.invalidate();
+		dataTLB.invalidate();
+		contextVersion++;
 	}
 
 	/**
@@ -233,6 +563,68 @@ public final class Processor {
 		return numPhysPages;
 	}
 
+	/**
+	 * Charge everything executed from now on to the specified statistics: the
+	 * ticks, page faults and TLB misses, instructions retired and exceptions
+	 * raised. The kernel sets the statistics of a process whenever one of its
+	 * threads is switched in, and sets <tt>null</tt> when it is switched out or
+	 * exits. Only the difference in the machine-wide statistics is added when
+	 * the process is switched out, so charging a process costs nothing per
+	 * instruction.
+	 *
+	 * @param stats
+	 *            the statistics of the process now running, or <tt>null</tt>
+	 *            if no process is running.
+	 */
+	public void setProcessStats(Stats stats) {
+		if (processStats != null)
+			processStats.addExecution(privilege.stats, processStatsStart);
+
+		processStats = stats;
+
+		if (stats != null)
+			processStatsStart.copyExecution(privilege.stats);
+	}
+
+	/**
+	 * Return the profiler sampling the programs run by this processor, or
+	 * <tt>null</tt> if <tt>Processor.profileInterval</tt> is not set.
+	 *
+	 * @return the profiler.
+	 */
+	Profiler profiler() {
+		return profiler;
+	}
+
+	/**
+	 * Translate a virtual address like <tt>translate()</tt>, but without
+	 * checking its alignment or write permission, setting the used bit, or
+	 * raising an exception.
+	 *
+	 * @param vaddr
+	 *            the virtual address to translate.
+	 * @return the physical address, or -1 if the address is not mapped.
+	 */
+	int peekTranslation(int vaddr) {
+		int vpn = pageFromAddress(vaddr);
+		TranslationEntry entry = null;
+
+		if (!usingTLB) {
+			if (translations != null && vpn < translations.length)
+				entry = translations[vpn];
+		} else {
+			for (int i = 0; i < tlbSize && entry == null; i++) {
+				if (translations[i].valid && translations[i].vpn == vpn)
+					entry = translations[i];
+			}
+		}
+
+		if (entry == null || !entry.valid || entry.ppn < 0 || entry.ppn >= numPhysPages)
+			return -1;
+
+		return (entry.ppn * pageSize) + offsetFromAddress(vaddr);
+	}
+
 	/**
 	 * Return a reference to the physical memory array. The size of this array
 	 * is <tt>pageSize * getNumPhysPages()</tt>.
@@ -243,6 +635,56 @@ public final class Processor {
 		return mainMemory;
 	}
 
+	/**
+	 * Copy bytes from physical memory into the specified array.
+	 *
+	 * @param paddr
+	 *            the first physical address to read.
+	 * @param data
+	 *            the array in which to store the bytes.
+	 * @param offset
+	 *            the first byte to write in the array.
+	 * @param length
+	 *            the number of bytes to copy.
+	 */
+	public void readPhysicalMemory(int paddr, byte[] data, int offset, int length) {
+		Lib.assertTrue(paddr >= 0 && length >= 0 && paddr + length <= mainMemory.length);
+
+		System.arraycopy(mainMemory, paddr, data, offset, length);
+	}
+
+	/**
+	 * Copy bytes from the specified array into physical memory.
+	 *
+	 * @param paddr
+	 *            the first physical address to write.
+	 * @param data
+	 *            the array containing the bytes.
+	 * @param offset
+	 *            the first byte to read from the array.
+	 * @param length
+	 *            the number of bytes to copy.
+	 */
+	public void writePhysicalMemory(int paddr, byte[] data, int offset, int length) {
+		Lib.assertTrue(paddr >= 0 && length >= 0 && paddr + length <= mainMemory.length);
+
+		System.arraycopy(data, offset, mainMemory, paddr, length);
+	}
+
+	/**
+	 * Set a range of physical memory to zero.
+	 *
+	 * @param paddr
+	 *            the first physical address to clear.
+	 * @param length
+	 *            the number of bytes to clear.
+	 */
+	public void clearPhysicalMemory(int paddr, int length) {
+		Lib.assertTrue(paddr >= 0 && length >= 0 && paddr + length <= mainMemory.length);
+
+		Arrays.fill(mainMemory, paddr, paddr + length, (byte) 0);
+	}
+
 	/**
 	 * Concatenate a page number and an offset into an address.
 	 *
@@ -292,6 +734,7 @@ public final class Processor {
 	 * table or a TLB. Check for alignment, make sure the virtual page is valid,
 	 * make sure a read-only page is not being written, make sure the resulting
 	 * physical page is valid, and then return the resulting physical address.
+	 * Recent translations are looked up in a micro-TLB first.
 	 *
 	 * @param vaddr
 	 *            the virtual address to translate.
@@ -299,63 +742,120 @@ public final class Processor {
 	 *            the size of the memory reference (must be 1, 2, or 4).
 	 * @param writing
 	 *            <tt>true</tt> if the memory reference is a write.
+	 * @param cache
+	 *            the micro-TLB for this kind of memory reference.
 	 * @return the physical address.
 	 * @exception MipsException
 	 *                if a translation error occurred.
 	 */
-	private int translate(int vaddr, int size, boolean writing) throws MipsException {
-		if (Lib.test(dbgProcessor))
+	private int translate(int vaddr, int size, boolean writing, MicroTLB cache) throws MipsException {
+		if (tracing && Lib.test(dbgProcessor))
 			System.out.println("\ttranslate vaddr=0x" + Lib.toHexString(vaddr) + (writing ? ", write" : ", read..."));
 
+		int paddr = cache.lookup(vaddr, size, writing);
+		if (paddr < 0) {
+			if (usingTLB)
+				paddr = translateTLB(vaddr, size, writing, cache);
+			else
+				paddr = translatePageTable(vaddr, size, writing, cache);
+		}
+
+		if (tracing && Lib.test(dbgProcessor))
+			System.out.println("\t\tpaddr=0x" + Lib.toHexString(paddr));
+		return paddr;
+	}
+
+	/**
+	 * Translate the address of the next instruction using the page table,
+	 * without any trace output.
+	 */
+	private int fetchPageTable(int pc) throws MipsException {
+		int paddr = instructionTLB.lookup(pc, 4, false);
+		if (paddr < 0)
+			paddr = translatePageTable(pc, 4, false, instructionTLB);
+		return paddr;
+	}
+
+	/**
+	 * Translate the address of the next instruction using the TLB, without any
+	 * trace output.
+	 */
+	private int fetchTLB(int pc) throws MipsException {
+		int paddr = instructionTLB.lookup(pc, 4, false);
+		if (paddr < 0)
+			paddr = translateTLB(pc, 4, false, instructionTLB);
+		return paddr;
+	}
+
+	/**
+	 * Translate a virtual address into a physical address using the page
+	 * table. The virtual page number is an index into the table.
+	 *
+	 * @see #translate(int, int, boolean, MicroTLB)
+	 */
+	private int translatePageTable(int vaddr, int size, boolean writing, MicroTLB cache) throws MipsException {
 		// check alignment
 		if ((vaddr & (size - 1)) != 0) {
 			Lib.debug(dbgProcessor, "\t\talignment error");
-			throw new MipsException(exceptionAddressError, vaddr);
+			throw raise(exceptionAddressError, vaddr);
 		}
 
-		// calculate virtual page number and offset from the virtual address
 		int vpn = pageFromAddress(vaddr);
-		int offset = offsetFromAddress(vaddr);
 
-		TranslationEntry entry = null;
+		if (translations == null || vpn >= translations.length || translations[vpn] == null
+				|| !translations[vpn].valid) {
+			privilege.stats.numPageFaults++;
+			Lib.debug(dbgProcessor, "\t\tpage fault");
+			throw raise(exceptionPageFault, vaddr);
+		}
 
-		// if not using a TLB, then the vpn is an index into the table
-		if (!usingTLB) {
-			if (translations == null || vpn >= translations.length || translations[vpn] == null
-					|| !translations[vpn].valid) {
-				privilege.stats.numPageFaults++;
-				Lib.debug(dbgProcessor, "\t\tpage fault");
-				throw new MipsException(exceptionPageFault, vaddr);
-			}
+		return physicalAddress(translations[vpn], vaddr, writing, cache);
+	}
 
-			entry = translations[vpn];
+	/**
+	 * Translate a virtual address into a physical address by looking through
+	 * all TLB entries for a matching virtual page number.
+	 *
+	 * @see #translate(int, int, boolean, MicroTLB)
+	 */
+	private int translateTLB(int vaddr, int size, boolean writing, MicroTLB cache) throws MipsException {
+		// check alignment
+		if ((vaddr & (size - 1)) != 0) {
+			Lib.debug(dbgProcessor, "\t\talignment error");
+			throw raise(exceptionAddressError, vaddr);
 		}
-		// else, look through all TLB entries for matching vpn
-		else {
-			for (int i = 0; i < tlbSize; i++) {
-				if (translations[i].valid && translations[i].vpn == vpn) {
-					entry = translations[i];
-					break;
-				}
-			}
-			if (entry == null) {
-				privilege.stats.numTLBMisses++;
-				Lib.debug(dbgProcessor, "\t\tTLB miss");
-				throw new MipsException(exceptionTLBMiss, vaddr);
-			}
+
+		int vpn = pageFromAddress(vaddr);
+
+		for (int i = 0; i < tlbSize; i++) {
+			if (translations[i].valid && translations[i].vpn == vpn)
+				return physicalAddress(translations[i], vaddr, writing, cache);
 		}
 
+		privilege.stats.numTLBMisses++;
+		Lib.debug(dbgProcessor, "\t\tTLB miss");
+		throw raise(exceptionTLBMiss, vaddr);
+	}
+
+	/**
+	 * Finish translating a virtual address using the translation entry for its
+	 * page. Make sure a read-only page is not being written, make sure the
+	 * physical page is valid, set the used and dirty bits, remember the
+	 * translation in the specified micro-TLB, and return the physical address.
+	 */
+	private int physicalAddress(TranslationEntry entry, int vaddr, boolean writing, MicroTLB cache)
+			throws MipsException {
 		// check if trying to write a read-only page
 		if (entry.readOnly && writing) {
 			Lib.debug(dbgProcessor, "\t\tread-only exception");
-			throw new MipsException(exceptionReadOnly, vaddr);
+			throw raise(exceptionReadOnly, vaddr);
 		}
 
 		// check if physical page number is out of range
 		int ppn = entry.ppn;
 		if (ppn < 0 || ppn >= numPhysPages) {
 			Lib.debug(dbgProcessor, "\t\tbad ppn");
-			throw new MipsException(exceptionBusError, vaddr);
+			throw raise(exceptionBusError, vaddr);
 		}
 
 		// set used and dirty bits as appropriate
@@ -363,11 +863,9 @@ public final class Processor {
 		if (writing)
 			entry.dirty = true;
 
-		int paddr = (ppn * pageSize) + offset;
+		cache.fill(pageFromAddress(vaddr), entry);
 
-		if (Lib.test(dbgProcessor))
-			System.out.println("\t\tpaddr=0x" + Lib.toHexString(paddr));
-		return paddr;
+		return (ppn * pageSize) + offsetFromAddress(vaddr);
 	}
 
 	/**
@@ -383,14 +881,22 @@ public final class Processor {
 	 *                if a translation error occurred.
 	 */
 	private int readMem(int vaddr, int size) throws MipsException {
-		if (Lib.test(dbgProcessor))
+		if (tracing && Lib.test(dbgProcessor))
 			System.out.println("\treadMem vaddr=0x" + Lib.toHexString(vaddr) + ", size=" + size);
 
 		Lib.assertTrue(size == 1 || size == 2 || size == 4);
 
-		int value = Lib.bytesToInt(mainMemory, translate(vaddr, size, false), size);
+		int paddr = translate(vaddr, size, false, dataTLB);
+
+		int value;
+		if (size == 4)
+			value = memoryView.getInt(paddr);
+		else if (size == 2)
+			value = memoryView.getShort(paddr);
+		else
+			value = mainMemory[paddr];
 
-		if (Lib.test(dbgProcessor))
+		if (tracing && Lib.test(dbgProcessor))
 			System.out.println("\t\tvalue read=0x" + Lib.toHexString(value, size * 2));
 
 		return value;
@@ -406,17 +912,27 @@ public final class Processor {
 	 *            the number of bytes to write (1, 2, or 4).
 	 * @param value
 	 *            the value to store.
+	 * @return the physical address written.
 	 * @exception MipsException
 	 *                if a translation error occurred.
 	 */
-	private void writeMem(int vaddr, int size, int value) throws MipsException {
-		if (Lib.test(dbgProcessor))
+	private int writeMem(int vaddr, int size, int value) throws MipsException {
+		if (tracing && Lib.test(dbgProcessor))
 			System.out.println("\twriteMem vaddr=0x" + Lib.toHexString(vaddr) + ", size=" + size + ", value=0x"
 					+ Lib.toHexString(value, size * 2));
 
 		Lib.assertTrue(size == 1 || size == 2 || size == 4);
 
-		Lib.bytesFromInt(mainMemory, translate(vaddr, size, true), size, value);
+		int paddr = translate(vaddr, size, true, dataTLB);
+
+		if (size == 4)
+			memoryView.putInt(paddr, value);
+		else if (size == 2)
+			memoryView.putShort(paddr, (short) value);
+		else
+			mainMemory[paddr] = (byte) value;
+
+		return paddr;
 	}
 
 	/**
@@ -460,6 +976,7 @@ public final class Processor {
 	 */
 	public void advancePC() {
 		advancePC(registers[regNextPC] + 4);
+		contextVersion++;
 	}
 
 	/**
@@ -558,6 +1075,77 @@ public final class Processor {
 	private int numPhysPages;
 	/** Main memory for user programs. */
 	private byte[] mainMemory;
+	/**
+	 * A little-endian view of <tt>mainMemory</tt>, so that halfwords and
+	 * words are read and written with a single access instead of one byte at
+	 * a time. It shares the array, so <tt>getMemory()</tt> still sees every
+	 * store.
+	 */
+	private ByteBuffer memoryView;
+	/**
+	 * Predecoded instructions, indexed by physical word address. Each entry
+	 * remembers the instruction word it was decoded from, so any store to a
+	 * cached word (by <tt>writeMem()</tt>, <tt>CoffSection.loadPage()</tt>, or
+	 * the kernel writing to <tt>getMemory()</tt>) invalidates it: the next
+	 * fetch sees a different word and decodes it again.
+	 */
+	private DecodedInstruction[] decodeCache;
+
+	/** The micro-TLB used to translate instruction fetches. */
+	private final MicroTLB instructionTLB = new MicroTLB();
+	/** The micro-TLB used to translate loads and stores. */
+	private final MicroTLB dataTLB = new MicroTLB();
+	/** The number of entries in each micro-TLB. Must be a power of two. */
+	private static final int microTLBSize = 16;
+
+	/** <tt>true</tt> if hot basic blocks are translated before running them. */
+	private boolean jit;
+	/** Translated blocks, indexed by the physical word address they start at. */
+	private TranslatedBlock[] blockCache;
+	/** The number of times each physical word address started a block. */
+	private int[] blockCounts;
+	/** The number of times a block must be reached before it is translated. */
+	private static final int jitThreshold = 32;
+	/**
+	 * Incremented whenever the kernel changes the registers or the address
+	 * translation state, so that a translated block can tell that it must stop
+	 * and let the next instruction be fetched and translated normally.
+	 */
+	private int contextVersion = 0;
+
+	/**
+	 * <tt>true</tt> if the debug flags ask for any processor trace output. Set
+	 * by <tt>run()</tt>, so the loops that produce no output do not test each
+	 * debug flag on every instruction.
+	 */
+	private boolean tracing = false;
+	/** The version of the debug flags <tt>tracing</tt> was computed from. */
+	private int debugFlagsVersion;
+
+	/**
+	 * The number of further user instructions whose ticks can be deferred
+	 * before an interrupt could become due.
+	 */
+	private long ticksBeforeDue = 0;
+	/** The number of user instructions whose ticks have been deferred. */
+	private long deferredTicks = 0;
+
+	/** The machine-wide count of instructions retired by class. */
+	private long[] instructionCounts;
+	/** The machine-wide count of exceptions by cause. */
+	private long[] exceptionCounts;
+	/** The statistics of the current process, or <tt>null</tt>. */
+	private Stats processStats = null;
+	/** The machine-wide statistics when <tt>processStats</tt> was set. */
+	private Stats processStatsStart = new Stats();
+
+	/** The guest profiler, if <tt>Processor.profileInterval</tt> is set. */
+	private Profiler profiler = null;
+	/** The number of user ticks at which the profiler takes its next sample. */
+	private long nextSample = 0;
+
+	/** The exception raised for each cause, indexed by cause. */
+	private final MipsException[] exceptions = new MipsException[exceptionNames.length];
 
 	/** The kernel exception handler, called on every user exception. */
 	private Runnable exceptionHandler = null;
@@ -572,27 +1160,121 @@ public final class Processor {
 		}
 	}
 
+	/**
+	 * A small direct-mapped cache of recent translations, indexed by the low
+	 * bits of the virtual page number. It is flushed whenever the page table
+	 * or a TLB entry is replaced. Because the kernel may change a page table
+	 * entry in place, every hit also checks that the entry is still valid,
+	 * still in the page table, still maps to the same physical page, and is
+	 * not read-only if written. A hit sets the used and dirty bits exactly as
+	 * a full translation would.
+	 */
+	private final class MicroTLB {
+		/**
+		 * Return the physical address for the specified virtual address, or
+		 * -1 if the translation is not cached or could raise an exception.
+		 */
+		int lookup(int vaddr, int size, boolean writing) {
+			if ((vaddr & (size - 1)) != 0)
+				return -1;
+
+			int vpn = pageFromAddress(vaddr);
+			int slot = vpn & (microTLBSize - 1);
+
+			TranslationEntry entry = entries[slot];
+			if (entry == null || vpns[slot] != vpn || !entry.valid || entry.ppn != ppns[slot]
+					|| (writing && entry.readOnly) || (!usingTLB && translations[vpn] != entry))
+				return -1;
+
+			entry.used = true;
+			if (writing)
+				entry.dirty = true;
+
+			return bases[slot] + offsetFromAddress(vaddr);
+		}
+
+		/** Remember that <i>vpn</i> is translated by <i>entry</i>. */
+		void fill(int vpn, TranslationEntry entry) {
+			int slot = vpn & (microTLBSize - 1);
+
+			entries[slot] = entry;
+			vpns[slot] = vpn;
+			ppns[slot] = entry.ppn;
+			bases[slot] = entry.ppn * pageSize;
+		}
+
+		/** Forget every cached translation. */
+		void invalidate() {
+			for (int i = 0; i < microTLBSize; i++)
+				entries[i] = null;
+		}
+
+		private TranslationEntry[] entries = new TranslationEntry[microTLBSize];
+		private int[] vpns = new int[microTLBSize];
+		private int[] ppns = new int[microTLBSize];
+		private int[] bases = new int[microTLBSize];
+	}
+
+	/**
+	 * Return the preallocated exception for the specified cause, ready to be
+	 * thrown.
+	 *
+	 * @param cause
+	 *            the cause of the exception.
+	 * @return the exception to throw.
+	 */
+	private MipsException raise(int cause) {
+		MipsException e = exceptions[cause];
+		e.hasBadVAddr = false;
+		return e;
+	}
+
+	/**
+	 * Return the preallocated exception for the specified cause, ready to be
+	 * thrown with the specified bad virtual address.
+	 *
+	 * @param cause
+	 *            the cause of the exception.
+	 * @param badVAddr
+	 *            the virtual address that caused the exception.
+	 * @return the exception to throw.
+	 */
+	private MipsException raise(int cause, int badVAddr) {
+		MipsException e = exceptions[cause];
+		e.hasBadVAddr = true;
+		e.badVAddr = badVAddr;
+		return e;
+	}
+
+	/**
+	 * An exception raised by a MIPS instruction. There is one instance for
+	 * each cause, allocated with the processor and reused by every
+	 * <tt>raise()</tt>, and it records no stack trace, so a TLB miss, page
+	 * fault or syscall allocates nothing. <tt>handle()</tt> reads the cause
+	 * and bad virtual address before it runs the kernel handler, so the
+	 * instance can be raised again by another thread while the kernel handles
+	 * it.
+	 */
 	private class MipsException extends Exception {
 		public MipsException(int cause) {
+			super(null, null, false, false);
+
 			Lib.assertTrue(cause >= 0 && cause < exceptionNames.length);
 
 			this.cause = cause;
 		}
 
-		public MipsException(int cause, int badVAddr) {
-			this(cause);
-
-			hasBadVAddr = true;
-			this.badVAddr = badVAddr;
-		}
-
 		public void handle() {
+			exceptionCounts[cause]++;
+			if (cause == exceptionSyscall)
+				instructionCounts[Stats.SyscallInstruction]++;
+
 			writeRegister(regCause, cause);
 
 			if (hasBadVAddr)
 				writeRegister(regBadVAddr, badVAddr);
 
-			if (Lib.test(dbgDisassemble) || Lib.test(dbgFullDisassemble))
+			if (tracing && (Lib.test(dbgDisassemble) || Lib.test(dbgFullDisassemble)))
 				System.out.println("exception: " + exceptionNames[cause]);
 
 			finishLoad();
@@ -600,14 +1282,20 @@ public final class Processor {
 			Lib.assertTrue(exceptionHandler != null);
 
 			// autograder might not want kernel to know about this exception
-			if (!Machine.autoGrader().exceptionHandler(privilege))
+			if (!Machine.events().exceptionHandler())
 				return;
 
+			if (cause == exceptionSyscall)
+				Machine.interrupt().charge(CostModel.syscall);
+			else if (cause == exceptionPageFault || cause == exceptionTLBMiss)
+				Machine.interrupt().charge(CostModel.pageFault);
+
 			exceptionHandler.run();
 		}
 
 		private boolean hasBadVAddr = false;
-		private int cause, badVAddr;
+		private final int cause;
+		private int badVAddr;
 	}
 
 	private class Instruction {
@@ -619,86 +1307,74 @@ public final class Processor {
 			writeBack();
 		}
 
+		/**
+		 * Run the instruction at the current PC, which has already been
+		 * translated to the specified physical address.
+		 */
+		public void run(int paddr) throws MipsException {
+			this.paddr = paddr;
+			value = memoryView.getInt(paddr);
+
+			decode();
+			execute();
+			writeBack();
+		}
+
 		private boolean test(int flag) {
 			return Lib.test(flag, flags);
 		}
 
 		private void fetch() throws MipsException {
-			if ((Lib.test(dbgDisassemble) && !Lib.test(dbgProcessor)) || Lib.test(dbgFullDisassemble))
+			if (tracing && ((Lib.test(dbgDisassemble) && !Lib.test(dbgProcessor)) || Lib.test(dbgFullDisassemble)))
 				System.out.print("PC=0x" + Lib.toHexString(registers[regPC]) + "\t");
 
-			value = readMem(registers[regPC], 4);
-		}
+			if (tracing && Lib.test(dbgProcessor))
+				System.out.println("\treadMem vaddr=0x" + Lib.toHexString(registers[regPC]) + ", size=4");
 
-		private void decode() {
-			op = Lib.extract(value, 26, 6);
-			rs = Lib.extract(value, 21, 5);
-			rt = Lib.extract(value, 16, 5);
-			rd = Lib.extract(value, 11, 5);
-			sh = Lib.extract(value, 6, 5);
-			func = Lib.extract(value, 0, 6);
-			target = Lib.extract(value, 0, 26);
-			imm = Lib.extend(value, 0, 16);
+			paddr = translate(registers[regPC], 4, false, instructionTLB);
+			value = memoryView.getInt(paddr);
 
-			Mips info;
-			switch (op) {
-			case 0:
-				info = Mips.specialtable[func];
-				break;
-			case 1:
-				info = Mips.regimmtable[rt];
-				break;
-			default:
-				info = Mips.optable[op];
-				break;
-			}
+			if (tracing && Lib.test(dbgProcessor))
+				System.out.println("\t\tvalue read=0x" + Lib.toHexString(value, 8));
+		}
 
-			operation = info.operation;
-			name = info.name;
-			format = info.format;
-			flags = info.flags;
+		private void decode() {
+			DecodedInstruction decoded = decodeWord(paddr, value);
+
+			op = decoded.op;
+			rs = decoded.rs;
+			rt = decoded.rt;
+			rd = decoded.rd;
+			sh = decoded.sh;
+			func = decoded.func;
+			target = decoded.target;
+			imm = decoded.imm;
+
+			operation = decoded.operation;
+			name = decoded.name;
+			format = decoded.format;
+			flags = decoded.flags;
+
+			size = decoded.size;
+			dstReg = decoded.dstReg;
+			instructionClass = decoded.instructionClass;
 
 			mask = 0xFFFFFFFF;
 			branch = true;
 
-			// get memory access size
-			if (test(Mips.SIZEB))
-				size = 1;
-			else if (test(Mips.SIZEH))
-				size = 2;
-			else if (test(Mips.SIZEW))
-				size = 4;
-			else
-				size = 0;
-
 			// get nextPC
 			nextPC = registers[regNextPC] + 4;
 
-			// get dstReg
-			if (test(Mips.DSTRA))
-				dstReg = regRA;
-			else if (format == Mips.IFMT)
-				dstReg = rt;
-			else if (format == Mips.RFMT)
-				dstReg = rd;
-			else
-				dstReg = -1;
-
 			// get jtarget
 			if (format == Mips.RFMT)
 				jtarget = registers[rs];
 			else if (format == Mips.IFMT)
-				jtarget = registers[regNextPC] + (imm << 2);
+				jtarget = registers[regNextPC] + decoded.branchOffset;
 			else if (format == Mips.JFMT)
 				jtarget = (registers[regNextPC] & 0xF0000000) | (target << 2);
 			else
 				jtarget = -1;
 
-			// get imm
-			if (test(Mips.UNSIGNED)) {
-				imm &= 0xFFFF;
-			}
-
 			// get addr
 			addr = registers[rs] + imm;
 
@@ -719,7 +1395,7 @@ public final class Processor {
 				src2 &= 0xFFFFFFFFL;
 			}
 
-			if (Lib.test(dbgDisassemble) || Lib.test(dbgFullDisassemble))
+			if (tracing && (Lib.test(dbgDisassemble) || Lib.test(dbgFullDisassemble)))
 				print();
 		}
 
@@ -856,7 +1532,7 @@ public final class Processor {
 					if (registers[regLo] * src2 + registers[regHi] != src1)
 						throw new ArithmeticException();
 				} catch (ArithmeticException e) {
-					throw new MipsException(exceptionOverflow);
+					throw raise(exceptionOverflow);
 				}
 				break;
 
@@ -926,7 +1602,7 @@ public final class Processor {
 				break;
 
 			case Mips.SYSCALL:
-				throw new MipsException(exceptionSyscall);
+				throw raise(exceptionSyscall);
 
 			case Mips.LOAD:
 				value = readMem(addr, size);
@@ -997,7 +1673,7 @@ public final class Processor {
 				System.err.println("Warning: encountered unimplemented inst");
 
 			case Mips.INVALID:
-				throw new MipsException(exceptionIllegalInstruction);
+				throw raise(exceptionIllegalInstruction);
 
 			default:
 				Lib.assertNotReached();
@@ -1007,7 +1683,7 @@ public final class Processor {
 		private void writeBack() throws MipsException {
 			// if instruction is signed, but carry bit !+ sign bit, throw
 			if (test(Mips.OVERFLOW) && Lib.test(dst, 31) != Lib.test(dst, 32))
-				throw new MipsException(exceptionOverflow);
+				throw raise(exceptionOverflow);
 
 			if (test(Mips.DELAYEDLOAD))
 				delayedLoad(dstReg, (int) dst, mask);
@@ -1020,7 +1696,7 @@ public final class Processor {
 			if (test(Mips.DST) && dstReg != 0)
 				registers[dstReg] = (int) dst;
 
-			if ((test(Mips.DST) || test(Mips.DELAYEDLOAD)) && dstReg != 0) {
+			if (tracing && (test(Mips.DST) || test(Mips.DELAYEDLOAD)) && dstReg != 0) {
 				if (Lib.test(dbgFullDisassemble)) {
 					System.out.print("#0x" + Lib.toHexString((int) dst));
 					if (test(Mips.DELAYEDLOAD))
@@ -1034,22 +1710,449 @@ public final class Processor {
 
 			advancePC(nextPC);
 
-			if ((Lib.test(dbgDisassemble) && !Lib.test(dbgProcessor)) || Lib.test(dbgFullDisassemble))
+			instructionCounts[instructionClass]++;
+
+			if (tracing && ((Lib.test(dbgDisassemble) && !Lib.test(dbgProcessor)) || Lib.test(dbgFullDisassemble)))
 				System.out.print("\n");
 		}
 
 		// state used to execute a single instruction
+		int paddr;
 		int value, op, rs, rt, rd, sh, func, target, imm;
 		int operation, format, flags;
 		String name;
 
-		int size;
+		int size, instructionClass;
 		int addr, nextPC, jtarget, dstReg;
 		long src1, src2, dst;
 		int mask;
 		boolean branch;
 	}
 
+	/**
+	 * A basic block of instructions translated for the translation tier
+	 * (<tt>Processor.jit</tt>). The block is a chain of operations, each
+	 * specialised on its decoded fields, that work directly on the registers
+	 * and main memory. The Nachos security manager does not allow class
+	 * loaders to be created, so blocks are not compiled into generated classes.
+	 *
+	 * <p>
+	 * Each operation has exactly the effect the interpreter would have, and
+	 * simulated time still advances after every instruction. A block stops
+	 * early when an interrupt handler changed the registers or the address
+	 * translation state, or when a store hits the block's own code.
+	 */
+	private class TranslatedBlock {
+		TranslatedBlock(int paddr, TranslatedOp[] ops) {
+			this.paddr = paddr;
+			this.ops = ops;
+
+			for (int i = 0; i < ops.length; i++)
+				ops[i].block = this;
+
+			end = paddr + Math.max(ops.length, 1) * 4;
+			words = new int[(end - paddr) / 4];
+			for (int i = 0; i < words.length; i++)
+				words[i] = memoryView.getInt(paddr + i * 4);
+		}
+
+		/**
+		 * Test whether the code this block was translated from is unchanged.
+		 */
+		boolean isCurrent() {
+			for (int i = 0; i < words.length; i++) {
+				if (memoryView.getInt(paddr + i * 4) != words[i])
+					return false;
+			}
+
+			return true;
+		}
+
+		/**
+		 * Run this block, advancing the simulated time after every instruction
+		 * but the last.
+		 */
+		void run(Instruction inst) throws MipsException {
+			int version = contextVersion;
+
+			for (int i = 0;; i++) {
+				boolean more = ops[i].execute();
+				instructionCounts[ops[i].instructionClass]++;
+
+				if (!more || i == ops.length - 1)
+					return;
+
+				tick();
+
+				if (contextVersion != version) {
+					inst.run();
+					return;
+				}
+			}
+		}
+
+		/**
+		 * Test whether the specified physical address holds part of this block.
+		 */
+		boolean contains(int address) {
+			return address >= paddr && address < end;
+		}
+
+		final int paddr, end;
+		final int[] words;
+		final TranslatedOp[] ops;
+	}
+
+	/**
+	 * A single translated instruction.
+	 */
+	private abstract class TranslatedOp {
+		TranslatedOp(DecodedInstruction decoded) {
+			rs = decoded.rs;
+			rt = decoded.rt;
+			sh = decoded.sh;
+			imm = decoded.imm;
+			dstReg = decoded.dstReg;
+			operation = decoded.operation;
+			flags = decoded.flags;
+			instructionClass = decoded.instructionClass;
+		}
+
+		/**
+		 * Execute this instruction and advance the PC.
+		 *
+		 * @return <tt>false</tt> if the block must stop after this instruction.
+		 */
+		abstract boolean execute() throws MipsException;
+
+		final int rs, rt, sh, imm, dstReg;
+		final int operation, flags, instructionClass;
+		/** The block containing this operation. */
+		TranslatedBlock block;
+	}
+
+	/**
+	 * An arithmetic, logical, shift, multiply, divide, or HI/LO instruction.
+	 */
+	private class AluOp extends TranslatedOp {
+		AluOp(DecodedInstruction decoded) {
+			super(decoded);
+		}
+
+		boolean execute() throws MipsException {
+			long src1, src2, dst = 0;
+
+			if (Lib.test(Mips.SRC1SH, flags))
+				src1 = sh;
+			else
+				src1 = registers[rs];
+
+			if (Lib.test(Mips.SRC2IMM, flags))
+				src2 = imm;
+			else
+				src2 = registers[rt];
+
+			if (Lib.test(Mips.UNSIGNED, flags)) {
+				src1 &= 0xFFFFFFFFL;
+				src2 &= 0xFFFFFFFFL;
+			}
+
+			switch (operation) {
+			case Mips.ADD:
+				dst = src1 + src2;
+				break;
+			case Mips.SUB:
+				dst = src1 - src2;
+				break;
+			case Mips.MULT:
+				dst = src1 * src2;
+				registers[regLo] = (int) Lib.extract(dst, 0, 32);
+				registers[regHi] = (int) Lib.extract(dst, 32, 32);
+				break;
+			case Mips.DIV:
+				try {
+					registers[regLo] = (int) (src1 / src2);
+					registers[regHi] = (int) (src1 % src2);
+					if (registers[regLo] * src2 + registers[regHi] != src1)
+						throw new ArithmeticException();
+				} catch (ArithmeticException e) {
+					throw raise(exceptionOverflow);
+				}
+				break;
+			case Mips.SLL:
+				dst = src2 << (src1 & 0x1F);
+				break;
+			case Mips.SRA:
+				dst = src2 >> (src1 & 0x1F);
+				break;
+			case Mips.SRL:
+				dst = src2 >>> (src1 & 0x1F);
+				break;
+			case Mips.SLT:
+				dst = (src1 < src2) ? 1 : 0;
+				break;
+			case Mips.AND:
+				dst = src1 & src2;
+				break;
+			case Mips.OR:
+				dst = src1 | src2;
+				break;
+			case Mips.NOR:
+				dst = ~(src1 | src2);
+				break;
+			case Mips.XOR:
+				dst = src1 ^ src2;
+				break;
+			case Mips.LUI:
+				dst = imm << 16;
+				break;
+			case Mips.MFLO:
+				dst = registers[regLo];
+				break;
+			case Mips.MFHI:
+				dst = registers[regHi];
+				break;
+			case Mips.MTLO:
+				registers[regLo] = (int) src1;
+				break;
+			case Mips.MTHI:
+				registers[regHi] = (int) src1;
+				break;
+			}
+
+			if (Lib.test(Mips.OVERFLOW, flags) && Lib.test(dst, 31) != Lib.test(dst, 32))
+				throw raise(exceptionOverflow);
+
+			finishLoad();
+
+			if (Lib.test(Mips.DST, flags) && dstReg != 0)
+				registers[dstReg] = (int) dst;
+
+			advancePC(registers[regNextPC] + 4);
+			return true;
+		}
+	}
+
+	/**
+	 * A branch or jump, with or without a link.
+	 */
+	private class BranchOp extends TranslatedOp {
+		BranchOp(DecodedInstruction decoded) {
+			super(decoded);
+
+			format = decoded.format;
+			target = decoded.target;
+			branchOffset = decoded.branchOffset;
+		}
+
+		boolean execute() {
+			int nextPC = registers[regNextPC] + 4;
+			int src1 = registers[rs];
+
+			int jtarget;
+			if (format == Mips.RFMT)
+				jtarget = src1;
+			else if (format == Mips.IFMT)
+				jtarget = registers[regNextPC] + branchOffset;
+			else
+				jtarget = (registers[regNextPC] & 0xF0000000) | (target << 2);
+
+			boolean branch;
+			switch (operation) {
+			case Mips.BEQ:
+				branch = (src1 == registers[rt]);
+				break;
+			case Mips.BNE:
+				branch = (src1 != registers[rt]);
+				break;
+			case Mips.BGEZ:
+				branch = (src1 >= 0);
+				break;
+			case Mips.BGTZ:
+				branch = (src1 > 0);
+				break;
+			case Mips.BLEZ:
+				branch = (src1 <= 0);
+				break;
+			case Mips.BLTZ:
+				branch = (src1 < 0);
+				break;
+			default:
+				branch = true;
+				break;
+			}
+
+			finishLoad();
+
+			if (Lib.test(Mips.LINK, flags) && dstReg != 0)
+				registers[dstReg] = nextPC;
+
+			if (branch)
+				nextPC = jtarget;
+
+			advancePC(nextPC);
+			return true;
+		}
+
+		final int format, target, branchOffset;
+	}
+
+	/**
+	 * A byte, halfword or word load, which is completed by the next
+	 * instruction.
+	 */
+	private class LoadOp extends TranslatedOp {
+		LoadOp(DecodedInstruction decoded) {
+			super(decoded);
+
+			size = decoded.size;
+		}
+
+		boolean execute() throws MipsException {
+			int value = readMem(registers[rs] + imm, size);
+
+			int dst;
+			if (!Lib.test(Mips.UNSIGNED, flags))
+				dst = Lib.extend(value, 0, size * 8);
+			else
+				dst = value;
+
+			delayedLoad(dstReg, dst, 0xFFFFFFFF);
+
+			advancePC(registers[regNextPC] + 4);
+			return true;
+		}
+
+		final int size;
+	}
+
+	/**
+	 * A byte, halfword or word store.
+	 */
+	private class StoreOp extends TranslatedOp {
+		StoreOp(DecodedInstruction decoded) {
+			super(decoded);
+
+			size = decoded.size;
+		}
+
+		boolean execute() throws MipsException {
+			int paddr = writeMem(registers[rs] + imm, size, registers[rt]);
+
+			finishLoad();
+
+			advancePC(registers[regNextPC] + 4);
+
+			// stop if this block just overwrote itself
+			return !block.contains(paddr);
+		}
+
+		final int size;
+	}
+
+	/**
+	 * The parts of a decoded instruction that depend only on the instruction
+	 * word, and not on the contents of any register.
+	 */
+	private static class DecodedInstruction {
+		DecodedInstruction(int value) {
+			this.value = value;
+
+			op = Lib.extract(value, 26, 6);
+			rs = Lib.extract(value, 21, 5);
+			rt = Lib.extract(value, 16, 5);
+			rd = Lib.extract(value, 11, 5);
+			sh = Lib.extract(value, 6, 5);
+			func = Lib.extract(value, 0, 6);
+			target = Lib.extract(value, 0, 26);
+
+			// branch targets always use the sign-extended immediate
+			int extended = Lib.extend(value, 0, 16);
+			branchOffset = extended << 2;
+
+			Mips info;
+			switch (op) {
+			case 0:
+				info = Mips.specialtable[func];
+				break;
+			case 1:
+				info = Mips.regimmtable[rt];
+				break;
+			default:
+				info = Mips.optable[op];
+				break;
+			}
+
+			operation = info.operation;
+			name = info.name;
+			format = info.format;
+			flags = info.flags;
+
+			// get memory access size
+			if (Lib.test(Mips.SIZEB, flags))
+				size = 1;
+			else if (Lib.test(Mips.SIZEH, flags))
+				size = 2;
+			else if (Lib.test(Mips.SIZEW, flags))
+				size = 4;
+			else
+				size = 0;
+
+			// get dstReg
+			if (Lib.test(Mips.DSTRA, flags))
+				dstReg = regRA;
+			else if (format == Mips.IFMT)
+				dstReg = rt;
+			else if (format == Mips.RFMT)
+				dstReg = rd;
+			else
+				dstReg = -1;
+
+			// get imm
+			if (Lib.test(Mips.UNSIGNED, flags))
+				imm = extended & 0xFFFF;
+			else
+				imm = extended;
+
+			// get the class counted in the statistics
+			switch (operation) {
+			case Mips.MULT:
+			case Mips.DIV:
+			case Mips.MFLO:
+			case Mips.MFHI:
+			case Mips.MTLO:
+			case Mips.MTHI:
+				instructionClass = Stats.MultDivInstruction;
+				break;
+			case Mips.LOAD:
+			case Mips.LWL:
+			case Mips.LWR:
+				instructionClass = Stats.LoadInstruction;
+				break;
+			case Mips.STORE:
+			case Mips.SWL:
+			case Mips.SWR:
+				instructionClass = Stats.StoreInstruction;
+				break;
+			case Mips.SYSCALL:
+				instructionClass = Stats.SyscallInstruction;
+				break;
+			default:
+				if (Lib.test(Mips.BRANCH, flags))
+					instructionClass = Stats.BranchInstruction;
+				else
+					instructionClass = Stats.ALUInstruction;
+			}
+		}
+
+		final int value, op, rs, rt, rd, sh, func, target;
+		final int imm, branchOffset;
+		final int operation, format, flags;
+		final String name;
+		final int size, dstReg;
+		final int instructionClass;
+	}
+
 	private static class Mips {
 		Mips() {
 		}
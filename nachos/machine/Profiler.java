@@ -0,0 +1,322 @@
+// PART OF THE MACHINE SIMULATION. DO NOT CHANGE.
+
+package nachos.machine;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A sampling profiler for the MIPS programs run by the processor. Every
+ * <tt>Processor.profileInterval</tt> user ticks, the processor asks the
+ * profiler to take a sample: the profiler records the PC and walks the stack
+ * of the running program to reconstruct the chain of calls that led there.
+ *
+ * <p>
+ * The COFF executables have no symbol table, so a function is named by its
+ * COFF section and the virtual address of its first instruction. Samples are
+ * attributed to the executable whose section was loaded into the physical
+ * page holding the PC, so every loaded executable gets its own profile. The
+ * profiles are printed by <tt>Machine.halt()</tt>, each as a flat profile
+ * followed by its call chains in the folded format used by flame graph tools.
+ *
+ * <p>
+ * Stack frames are found the way a debugger finds them for MIPS code without
+ * frame pointers: scan back from the PC for the <tt>addiu $sp,$sp,-N</tt>
+ * that allocates the frame, and forward from there for the
+ * <tt>sw $ra,offset($sp)</tt> that saves the return address. A function that
+ * has not saved its return address yet is assumed to return through
+ * <tt>$ra</tt>, which is only trusted for the innermost frame.
+ */
+final class Profiler {
+	/**
+	 * Allocate a new profiler for the specified processor.
+	 *
+	 * @param processor
+	 *            the processor whose programs are profiled.
+	 * @param interval
+	 *            the number of user ticks between samples.
+	 */
+	Profiler(Processor processor, int interval) {
+		Lib.assertTrue(interval > 0);
+
+		this.processor = processor;
+		this.interval = interval;
+
+		pageSections = new CoffSection[processor.getNumPhysPages()];
+	}
+
+	/**
+	 * Return the number of user ticks between samples.
+	 *
+	 * @return the sampling interval.
+	 */
+	int getInterval() {
+		return interval;
+	}
+
+	/**
+	 * Remember that a page of the specified COFF section was loaded into the
+	 * specified physical page. Called by <tt>CoffSection.loadPage()</tt>.
+	 *
+	 * @param ppn
+	 *            the physical page loaded into.
+	 * @param section
+	 *            the section the page belongs to.
+	 * @param fileName
+	 *            the name of the executable containing the section.
+	 */
+	void pageLoaded(int ppn, CoffSection section, String fileName) {
+		pageSections[ppn] = section;
+
+		Coff coff = section.getCoff();
+		if (!profiles.containsKey(coff)) {
+			profiles.put(coff, new Profile(fileName + "#" + (profiles.size() + 1)));
+		}
+	}
+
+	/**
+	 * Take a sample of the program running on the processor.
+	 */
+	void sample() {
+		ArrayList<String> chain = new ArrayList<String>();
+		Profile profile = null;
+
+		int pc = processor.readRegister(Processor.regPC);
+		int sp = processor.readRegister(Processor.regSP);
+		int ra = processor.readRegister(Processor.regRA);
+
+		for (int depth = 0; depth < maxDepth; depth++) {
+			CoffSection section = sectionOf(pc);
+			if (section == null)
+				break;
+
+			if (depth == 0)
+				profile = profiles.get(section.getCoff());
+
+			int start = findFunctionStart(pc);
+			if (start == -1)
+				break;
+
+			chain.add(section.getName() + ":0x" + Lib.toHexString(start));
+
+			int returnAddress;
+			int frameSize = 0;
+
+			int word = readWord(start);
+			if ((word >>> 16) == 0x27BD && (short) word < 0 && pc != start)
+				frameSize = -(short) word;
+
+			int saved = findSavedReturnAddress(start, pc);
+			if (frameSize > 0 && saved != -1) {
+				int paddr = processor.peekTranslation(sp + saved);
+				if (paddr == -1)
+					break;
+				returnAddress = Lib.bytesToInt(processor.getMemory(), paddr);
+			} else if (depth == 0 && callsFunction(ra - 8, start)) {
+				returnAddress = ra;
+			} else {
+				break;
+			}
+
+			sp += frameSize;
+
+			// attribute the caller to its jal, not to its delay slot
+			pc = returnAddress - 8;
+		}
+
+		if (profile == null)
+			profile = unknown;
+
+		profile.add(chain);
+	}
+
+	/**
+	 * Print every profile.
+	 */
+	void print() {
+		ArrayList<Profile> all = new ArrayList<Profile>(profiles.values());
+		if (unknown.samples > 0)
+			all.add(unknown);
+
+		for (Iterator<Profile> i = all.iterator(); i.hasNext();) {
+			Profile profile = i.next();
+			if (profile.samples > 0)
+				profile.print();
+		}
+	}
+
+	/**
+	 * Return the section loaded into the page holding the specified virtual
+	 * address, or <tt>null</tt> if it is not mapped or not loaded from an
+	 * executable.
+	 */
+	private CoffSection sectionOf(int vaddr) {
+		int paddr = processor.peekTranslation(vaddr);
+		if (paddr == -1 || (vaddr & 3) != 0)
+			return null;
+
+		return pageSections[paddr / Processor.pageSize];
+	}
+
+	/**
+	 * Return the word at the specified virtual address, or 0 if it is not
+	 * mapped.
+	 */
+	private int readWord(int vaddr) {
+		int paddr = processor.peekTranslation(vaddr);
+		if (paddr == -1)
+			return 0;
+
+		return Lib.bytesToInt(processor.getMemory(), paddr);
+	}
+
+	/**
+	 * Find the first instruction of the function containing <i>pc</i>. That is
+	 * either the instruction allocating its stack frame, or, for a function
+	 * without one, the instruction after the return of the function before it.
+	 */
+	private int findFunctionStart(int pc) {
+		for (int address = pc, i = 0; i < maxScan; address -= 4, i++) {
+			if (sectionOf(address) == null)
+				return address + 4;
+
+			int word = readWord(address);
+			if ((word >>> 16) == 0x27BD && (short) word < 0)
+				return address;
+
+			// jr $ra and its delay slot end the previous function
+			if (word == 0x03E00008 && address + 8 <= pc)
+				return address + 8;
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Return the stack offset where the function starting at <i>start</i> has
+	 * saved its return address before reaching <i>pc</i>, or -1 if it has not.
+	 */
+	private int findSavedReturnAddress(int start, int pc) {
+		for (int address = start; address < pc; address += 4) {
+			int word = readWord(address);
+			if ((word >>> 16) == 0xAFBF)
+				return (short) word;
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Test whether the instruction at <i>call</i> could have called the
+	 * function starting at <i>start</i>: either a <tt>jal</tt> to it, or a
+	 * <tt>jalr</tt>. Used to tell whether <tt>$ra</tt> still holds the return
+	 * address of a function that has not saved it.
+	 */
+	private boolean callsFunction(int call, int start) {
+		if (sectionOf(call) == null)
+			return false;
+
+		int word = readWord(call);
+		if ((word >>> 26) == 0x03)
+			return ((call + 4) & 0xF0000000 | (word & 0x03FFFFFF) << 2) == start;
+
+		return (word >>> 26) == 0x00 && (word & 0x3F) == 0x09;
+	}
+
+	/**
+	 * The samples attributed to one executable.
+	 */
+	private class Profile {
+		Profile(String name) {
+			this.name = name;
+		}
+
+		void add(ArrayList<String> chain) {
+			samples++;
+
+			if (chain.isEmpty())
+				chain.add("?");
+
+			increment(self, chain.get(0));
+
+			HashSet<String> seen = new HashSet<String>(chain);
+			for (Iterator<String> i = seen.iterator(); i.hasNext();)
+				increment(total, i.next());
+
+			StringBuffer folded = new StringBuffer(name);
+			for (int i = chain.size() - 1; i >= 0; i--)
+				folded.append(';').append(chain.get(i));
+			increment(stacks, folded.toString());
+		}
+
+		void print() {
+			System.out.println("Profile of " + name + ": " + samples + " samples, one every " + interval
+					+ " user ticks");
+			System.out.println("\tself\ttotal\tfunction");
+
+			ArrayList<String> functions = new ArrayList<String>(total.keySet());
+			Collections.sort(functions, new Comparator<String>() {
+				public int compare(String a, String b) {
+					int diff = count(self, b) - count(self, a);
+					if (diff == 0)
+						diff = count(total, b) - count(total, a);
+					return diff != 0 ? diff : a.compareTo(b);
+				}
+			});
+
+			for (Iterator<String> i = functions.iterator(); i.hasNext();) {
+				String function = i.next();
+				System.out.println("\t" + percent(count(self, function)) + "\t" + percent(count(total, function))
+						+ "\t" + function);
+			}
+
+			System.out.println("Folded call chains of " + name + ":");
+			for (Iterator<Map.Entry<String, Integer>> i = new TreeMap<String, Integer>(stacks).entrySet()
+					.iterator(); i.hasNext();) {
+				Map.Entry<String, Integer> entry = i.next();
+				System.out.println(entry.getKey() + " " + entry.getValue());
+			}
+		}
+
+		private String percent(int count) {
+			return (count * 1000 / samples) / 10.0 + "%";
+		}
+
+		private void increment(HashMap<String, Integer> counts, String key) {
+			counts.put(key, count(counts, key) + 1);
+		}
+
+		private int count(HashMap<String, Integer> counts, String key) {
+			Integer count = counts.get(key);
+			return count == null ? 0 : count.intValue();
+		}
+
+		private String name;
+		private int samples = 0;
+		private HashMap<String, Integer> self = new HashMap<String, Integer>();
+		private HashMap<String, Integer> total = new HashMap<String, Integer>();
+		private HashMap<String, Integer> stacks = new HashMap<String, Integer>();
+	}
+
+	private Processor processor;
+	private int interval;
+
+	/** The section each physical page was last loaded from. */
+	private CoffSection[] pageSections;
+	/** A profile for each executable that has been loaded. */
+	private LinkedHashMap<Coff, Profile> profiles = new LinkedHashMap<Coff, Profile>();
+	/** Samples taken while the PC was not in a loaded section. */
+	private Profile unknown = new Profile("(unknown)");
+
+	/** The deepest call chain recorded. */
+	private static final int maxDepth = 64;
+	/** The most instructions scanned looking for the start of a function. */
+	private static final int maxScan = 4096;
+}
@@ -23,6 +23,72 @@ public final class Stats {
 		System.out.println("Console I/O: reads " + numConsoleReads + ", writes " + numConsoleWrites);
 		System.out.println("Paging: page faults " + numPageFaults + ", TLB misses " + numTLBMisses);
 		System.out.println("Network I/O: received " + numPacketsReceived + ", sent " + numPacketsSent);
+		System.out.println("Idle: kernel ticks skipped " + idleTicks);
+		if (numDeadlinesMet + numDeadlinesMissed > 0)
+			System.out.println("Deadlines: met " + numDeadlinesMet + ", missed " + numDeadlinesMissed);
+		printInstructions();
+	}
+
+	/**
+	 * Print out only the statistics about executing MIPS code: ticks, paging,
+	 * instructions and exceptions. Used for the statistics of a single process.
+	 */
+	public void printExecution() {
+		System.out.println("Ticks: total " + totalTicks + ", kernel " + kernelTicks + ", user " + userTicks);
+		System.out.println("Paging: page faults " + numPageFaults + ", TLB misses " + numTLBMisses);
+		printInstructions();
+	}
+
+	private void printInstructions() {
+		String line = "Instructions:";
+		for (int i = 0; i < instructionClassNames.length; i++)
+			line += (i == 0 ? " " : ", ") + instructionClassNames[i] + " " + numInstructions[i];
+		System.out.println(line);
+
+		line = "Exceptions:";
+		int printed = 0;
+		for (int i = 0; i < numExceptions.length; i++) {
+			if (numExceptions[i] > 0)
+				line += (printed++ == 0 ? " " : ", ") + Processor.exceptionNames[i].trim() + " " + numExceptions[i];
+		}
+		System.out.println(printed == 0 ? line + " none" : line);
+	}
+
+	/**
+	 * Copy the statistics about executing MIPS code from another object.
+	 *
+	 * @param stats
+	 *            the statistics to copy.
+	 */
+	void copyExecution(Stats stats) {
+		totalTicks = stats.totalTicks;
+		kernelTicks = stats.kernelTicks;
+		userTicks = stats.userTicks;
+		numPageFaults = stats.numPageFaults;
+		numTLBMisses = stats.numTLBMisses;
+		System.arraycopy(stats.numInstructions, 0, numInstructions, 0, numInstructions.length);
+		System.arraycopy(stats.numExceptions, 0, numExceptions, 0, numExceptions.length);
+	}
+
+	/**
+	 * Add to the statistics about executing MIPS code in this object
+	 * everything counted in <i>now</i> since <i>then</i>.
+	 *
+	 * @param now
+	 *            the current statistics.
+	 * @param then
+	 *            a copy of the statistics made earlier.
+	 */
+	void addExecution(Stats now, Stats then) {
+		totalTicks += now.totalTicks - then.totalTicks;
+		kernelTicks += now.kernelTicks - then.kernelTicks;
+		userTicks += now.userTicks - then.userTicks;
+		numPageFaults += now.numPageFaults - then.numPageFaults;
+		numTLBMisses += now.numTLBMisses - then.numTLBMisses;
+		for (int i = 0; i < numInstructions.length; i++)
+			numInstructions[i] += now.numInstructions[i] - then.numInstructions[i];
+		for (int i = 0; i < numExceptions.length; i++)
+			numExceptions[i] += now.numExceptions[i] - then.numExceptions[i];
 	}
 
 	/**
@@ -37,6 +103,12 @@ public final class Stats {
 	 * The total amount of simulated time that Nachos has spent in user mode.
 	 */
 	public long userTicks = 0;
+	/**
+	 * The part of <tt>kernelTicks</tt> that the idle thread skipped because
+	 * nothing could run until the next interrupt (see
+	 * <tt>Interrupt.idle()</tt>).
+	 */
+	public long idleTicks = 0;
 
 	/** The total number of sectors Nachos has read from the simulated disk. */
 	public int numDiskReads = 0;
@@ -54,6 +126,35 @@ public final class Stats {
 	public int numPacketsSent = 0;
 	/** The total number of packets Nachos has received from the network. */
 	public int numPacketsReceived = 0;
+	/** The number of deadlines the kernel reported met (see <tt>Timer</tt>). */
+	public int numDeadlinesMet = 0;
+	/** The number of deadlines the kernel reported missed. */
+	public int numDeadlinesMissed = 0;
+	/**
+	 * The number of MIPS instructions retired, by instruction class (see
+	 * <tt>instructionClassNames</tt>).
+	 */
+	public long[] numInstructions = new long[instructionClassNames.length];
+	/**
+	 * The number of exceptions raised by MIPS code, by cause (see
+	 * <tt>Processor.exceptionNames</tt>).
+	 */
+	public long[] numExceptions = new long[Processor.exceptionNames.length];
+
+	/** Index of arithmetic, logical and shift instructions. */
+	public static final int ALUInstruction = 0;
+	/** Index of load instructions. */
+	public static final int LoadInstruction = 1;
+	/** Index of store instructions. */
+	public static final int StoreInstruction = 2;
+	/** Index of branch and jump instructions. */
+	public static final int BranchInstruction = 3;
+	/** Index of multiply, divide and HI/LO move instructions. */
+	public static final int MultDivInstruction = 4;
+	/** Index of syscall instructions. */
+	public static final int SyscallInstruction = 5;
+	/** Names of the instruction classes counted in <tt>numInstructions</tt>. */
+	public static final String[] instructionClassNames = { "ALU", "load", "store", "branch", "mult/div", "syscall" };
 
 	/**
 	 * The amount to advance simulated time after each user instructions is
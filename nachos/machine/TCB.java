@@ -6,6 +6,8 @@ import nachos.security.*;
 import nachos.threads.KThread;
 
 import java.util.Vector;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * A TCB simulates the low-level details necessary to create, context-switch,
@@ -20,14 +22,45 @@ import java.util.Vector;
  * <p>
  * Do not use the <i>synchronized</i> keyword <b>anywhere</b> in your code. It's
  * against the rules, <i>and</i> it can easily deadlock nachos.
+ *
+ * <p>
+ * A TCB waiting for its turn to run blocks its Java thread either on the
+ * monitor of the TCB, or, if <tt>TCB.handoff</tt> is <tt>park</tt>, with
+ * <tt>LockSupport.park()</tt>, which wakes the next thread directly instead
+ * of going through a monitor. Either way exactly one TCB runs at a time, and
+ * every switch blocks one OS thread and wakes another.
+ *
+ * <p>
+ * If <tt>TCB.poolThreads</tt> is set, the Java thread of a destroyed TCB is
+ * kept in a pool and reused to run a TCB started later, instead of exiting.
  */
 public final class TCB {
 	/**
-	 * The maximum number of started, non-destroyed TCB's that can be in
-	 * existence.
+	 * The default maximum number of started, non-destroyed TCB's that can be
+	 * in existence.
 	 */
 	public static final int maxThreads = 250;
 
+	/**
+	 * The maximum number of started, non-destroyed TCB's that can be in
+	 * existence, set by <tt>TCB.maxThreads</tt>.
+	 */
+	private static int threadLimit = maxThreads;
+
+	/**
+	 * <tt>true</tt> if waiting TCBs park their Java threads instead of waiting
+	 * on their monitors.
+	 */
+	private static boolean parking = false;
+
+	/**
+	 * The Java threads of destroyed TCBs, waiting to run new TCBs, or
+	 * <tt>null</tt> if Java threads are not reused.
+	 */
+	private static LinkedBlockingDeque<Carrier> idleCarriers = null;
+	/** The stack size of new Java threads, or 0 for the JVM default. */
+	private static long stackSize = 0;
+
 	/**
 	 * A reference to the currently running TCB. It is initialized to
 	 * <tt>null</tt> when the <tt>TCB</tt> class is loaded, and then the first
@@ -56,6 +89,11 @@ public final class TCB {
 	 * first TCB is created, this vector is basically never empty.
 	 */
 	private static Vector<TCB> runningThreads = new Vector<TCB>();
+	/**
+	 * Set by <tt>stopAll()</tt> when a hosted machine stops, after which
+	 * every Java thread of the machine dies as soon as it wakes up or ticks.
+	 */
+	private static volatile boolean stopped = false;
 	private static Privilege privilege;
 	private static KThread toBeDestroyed = null;
 
@@ -83,7 +121,7 @@ public final class TCB {
 	 * TCB, this is temporarily true for a thread other than that of the current
 	 * TCB.
 	 */
-	private boolean running = false;
+	private volatile boolean running = false;
 
 	/**
 	 * Set to <tt>true</tt> by <tt>destroy()</tt>, so that when
@@ -95,7 +133,6 @@ public final class TCB {
 
 	private KThread nachosThread = null;
 	private Runnable target;//exactly the runnable target 
-	private Runnable tcbTarget;//used by javaThread
 
 	/**
 	 * Allocate a new TCB.
@@ -114,6 +151,18 @@ public final class TCB {
 	public static void givePrivilege(Privilege privilege) {
 		TCB.privilege = privilege;
 		privilege.tcb = new TCBPrivilege();
+
+		threadLimit = Config.getInteger("TCB.maxThreads", maxThreads);
+
+		String handoff = Config.getString("TCB.handoff", "monitor");
+		Lib.assertTrue(handoff.equals("monitor") || handoff.equals("park"), "TCB.handoff must be monitor or park");
+		parking = handoff.equals("park");
+
+		int poolThreads = Config.getInteger("TCB.poolThreads", 0);
+		if (poolThreads > 0)
+			idleCarriers = new LinkedBlockingDeque<Carrier>(poolThreads);
+
+		stackSize = Config.getInteger("TCB.stackSize", 0);
 	}
 
 	/**
@@ -143,7 +192,7 @@ public final class TCB {
 		 * Make sure there aren't too many running TCBs already. This limitation
 		 * exists in an effort to prevent wild thread usage.
 		 */
-		Lib.assertTrue(runningThreads.size() < maxThreads);
+		Lib.assertTrue(runningThreads.size() < threadLimit);
 
 		isFirstTCB = (currentTCB == null);
 
@@ -167,31 +216,36 @@ public final class TCB {
 
 		if (!isFirstTCB) {
 			/*
-			 * If this is not the first TCB, we have to make a new Java thread
-			 * to run it. Creating Java threads is a privileged operation.
+			 * If this is not the first TCB, we have to find a Java thread to
+			 * run it: an idle one from the pool, or else a new one. Creating
+			 * Java threads is a privileged operation.
 			 */
-			tcbTarget = new Runnable() {
-				public void run() {
-					threadroot();
-				}
-			};
+			Carrier carrier = (idleCarriers == null ? null : idleCarriers.poll());
 
-			privilege.doPrivileged(new Runnable() {
-				public void run() {
-					javaThread = new Thread(tcbTarget);
-				}
-			});
+			if (carrier == null) {
+				final Carrier newCarrier = carrier = new Carrier();
+
+				privilege.doPrivileged(new Runnable() {
+					public void run() {
+						newCarrier.thread = new Thread(null, newCarrier, "TCB", stackSize);
+					}
+				});
+
+				newCarrier.thread.start();
+			}
+
+			javaThread = carrier.thread;
 
 			/*
-			 * The Java thread hasn't yet started, but we need to get it
+			 * The Java thread isn't running this TCB yet, but we need to get it
 			 * blocking in yield(). We do this by temporarily turning off the
-			 * current TCB, starting the new Java thread, and waiting for it to
+			 * current TCB, handing this TCB to the Java thread, and waiting for it to
 			 * wake us up from threadroot(). Once the new TCB wakes us up, it's
 			 * safe to context switch to the new TCB.
 			 */
 			currentTCB.running = false;
 
-			this.javaThread.start();
+			carrier.assign(this);
 			currentTCB.waitForInterrupt();
 		} else {
 			/*
@@ -232,6 +286,8 @@ public final class TCB {
 		if (this == currentTCB)
 			return;
 
+		Machine.interrupt().charge(CostModel.contextSwitch);
+
 		/*
 		 * There are some synchronization concerns here. As soon as we wake up
 		 * the next thread, we cannot assume anything about static variables, or
@@ -280,6 +336,37 @@ public final class TCB {
 		privilege.exit(0);
 	}
 
+	/**
+	 * Stop a machine run by <tt>MachineHost</tt>, which shares the JVM with
+	 * other machines and so cannot exit. Every waiting TCB and idle carrier is
+	 * woken up and its Java thread dies, and so does the running TCB's the
+	 * next time the simulated clock ticks, so that nothing keeps the machine's
+	 * classes and memory reachable. May be called from any Java thread.
+	 */
+	static void stopAll() {
+		stopped = true;
+
+		TCB[] tcbs = runningThreads.toArray(new TCB[0]);
+		for (int i = 0; i < tcbs.length; i++) {
+			if (tcbs[i].javaThread != null)
+				tcbs[i].interrupt();
+		}
+
+		if (idleCarriers != null) {
+			for (Carrier carrier : idleCarriers)
+				LockSupport.unpark(carrier.thread);
+		}
+	}
+
+	/**
+	 * Kill the current Java thread if <tt>stopAll()</tt> has stopped the
+	 * machine.
+	 */
+	static void checkStopped() {
+		if (stopped)
+			throw new ThreadDeath();
+	}
+
 	/**
 	 * Test if the current JVM thread belongs to a Nachos TCB. The AWT event
 	 * dispatcher is an example of a non-Nachos thread.
@@ -321,6 +408,10 @@ public final class TCB {
 			// no way out of here without going throw one of the catch blocks
 			Lib.assertNotReached();
 		} catch (ThreadDeath e) {
+			// the machine has been stopped, and every thread just dies
+			if (stopped)
+				return;
+
 			// make sure this TCB is being destroyed properly
 			if (!done) {
 				System.out.print("\nTCB terminated improperly!\n");
@@ -331,6 +422,9 @@ public final class TCB {
 			if (runningThreads.isEmpty())
 				privilege.exit(0);
 		} catch (Throwable e) {
+			if (stopped)
+				return;
+
 			System.out.print("\n");
 			e.printStackTrace();
 
@@ -369,7 +463,20 @@ public final class TCB {
 	 * from this TCB to another. We don't rely on <tt>currentTCB</tt>, since it
 	 * is updated by <tt>contextSwitch()</tt> before we get called.
 	 */
-	private synchronized void waitForInterrupt() {
+	private void waitForInterrupt() {
+		if (parking) {
+			// running is volatile, so seeing it set also makes visible
+			// everything the waking TCB did before setting it
+			while (!running)
+				LockSupport.park(this);
+		} else {
+			waitOnMonitor();
+		}
+
+		checkStopped();
+	}
+
+	private synchronized void waitOnMonitor() {
 		while (!running) {
 			try {
 				wait();
@@ -384,7 +491,17 @@ public final class TCB {
 	 * starting and destroying TCBs, as well as in context switching to this
 	 * TCB.
 	 */
-	private synchronized void interrupt() {
+	private void interrupt() {
+		if (parking) {
+			Thread thread = javaThread;
+			running = true;
+			LockSupport.unpark(thread);
+		} else {
+			notifyMonitor();
+		}
+	}
+
+	private synchronized void notifyMonitor() {
 		running = true;
 		notify();
 	}
@@ -410,6 +527,45 @@ public final class TCB {
 		toBeDestroyed = thread;
 	}
 
+	/**
+	 * The Java thread that runs a TCB. When its TCB is destroyed, it returns
+	 * to the pool of idle carriers, if the pool is not full, and waits to be
+	 * assigned another TCB. Otherwise it exits.
+	 */
+	private static class Carrier implements Runnable {
+		/**
+		 * Run the specified TCB in this carrier's Java thread.
+		 */
+		void assign(TCB tcb) {
+			this.tcb = tcb;
+			LockSupport.unpark(thread);
+		}
+
+		public void run() {
+			while (true) {
+				while (tcb == null) {
+					if (stopped)
+						return;
+					LockSupport.park(this);
+				}
+
+				tcb.threadroot();
+
+				if (stopped)
+					return;
+
+				// the TCB that destroyed ours may already be looking for a
+				// carrier
+				tcb = null;
+				if (idleCarriers == null || !idleCarriers.offer(this))
+					return;
+			}
+		}
+
+		Thread thread;
+		private volatile TCB tcb = null;
+	}
+
 	private static class TCBPrivilege implements Privilege.TCBPrivilege {
 		public void associateThread(KThread thread) {
 			Lib.assertTrue(currentTCB != null);
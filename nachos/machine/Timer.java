@@ -13,6 +13,12 @@ import nachos.security.*;
  * interrupt to occur every time approximately 500 clock ticks pass. There is a
  * small degree of randomness here, so interrupts do not occur exactly every 500
  * ticks.
+ *
+ * <p>
+ * If <tt>Timer.tickless</tt> is true, the timer does not interrupt
+ * periodically. Instead the kernel programs the time of the next interrupt
+ * with <tt>setNextInterrupt()</tt>, whenever a sleeping thread must be woken
+ * or a running thread preempted, and the timer stays silent otherwise.
  */
 public final class Timer {
 	
@@ -22,6 +28,12 @@ public final class Timer {
 	private Runnable autoGraderInterrupt;
 	private Runnable handler = null;
 	private Privilege privilege;
+
+	private boolean tickless;
+	/** The time programmed by <tt>setNextInterrupt()</tt>, or -1. */
+	private long nextInterrupt = -1;
+	/** The time of the pending tickless timer interrupt, or -1. */
+	private long scheduledInterrupt = -1;
 	
 	/**
 	 * Allocate a new timer.
@@ -42,16 +54,47 @@ public final class Timer {
 
 		autoGraderInterrupt = new Runnable() {
 			public void run() {
-				Machine.autoGrader().timerInterrupt(Timer.this.privilege, lastTimerInterrupt);
+				Machine.events().timerInterrupt(lastTimerInterrupt);
 			}
 		};
 
-		scheduleInterrupt();
+		tickless = Config.getBoolean("Timer.tickless", false);
+		if (!tickless)
+			scheduleInterrupt();
+	}
+
+	/**
+	 * Test whether this timer only interrupts when programmed with
+	 * <tt>setNextInterrupt()</tt>.
+	 *
+	 * @return <tt>true</tt> if the timer is in tickless mode.
+	 */
+	public boolean isTickless() {
+		return tickless;
+	}
+
+	/**
+	 * Program a tickless timer to interrupt at the specified time, replacing
+	 * any time programmed earlier. A time that has already passed interrupts
+	 * at the next tick.
+	 *
+	 * @param time
+	 *            the time of the next timer interrupt, or -1 for none.
+	 */
+	public void setNextInterrupt(long time) {
+		Lib.assertTrue(tickless);
+
+		nextInterrupt = time;
+
+		// a later interrupt already scheduled is ignored when it occurs
+		if (time != -1 && (scheduledInterrupt == -1 || time < scheduledInterrupt))
+			scheduleTicklessInterrupt(time);
 	}
 
 	/**
 	 * Set the callback to use as a timer interrupt handler. The timer interrupt
-	 * handler will be called approximately every 500 clock ticks.
+	 * handler will be called approximately every 500 clock ticks, or in
+	 * tickless mode at the times programmed with <tt>setNextInterrupt()</tt>.
 	 *
 	 * @param handler
 	 *            the timer interrupt handler.
@@ -69,6 +112,20 @@ public final class Timer {
 		return privilege.stats.totalTicks;
 	}
 
+	/**
+	 * Record whether the kernel met a deadline it measured with this timer, so
+	 * that it is counted in the statistics printed when Nachos halts.
+	 *
+	 * @param met
+	 *            <tt>true</tt> if the deadline was met.
+	 */
+	public void recordDeadline(boolean met) {
+		if (met)
+			privilege.stats.numDeadlinesMet++;
+		else
+			privilege.stats.numDeadlinesMissed++;
+	}
+
 	private void timerInterrupt() {
 		scheduleInterrupt();
 		scheduleAutoGraderInterrupt();
@@ -79,6 +136,40 @@ public final class Timer {
 			handler.run();
 	}
 
+	private void scheduleTicklessInterrupt(final long time) {
+		scheduledInterrupt = time;
+
+		privilege.interrupt.schedule(Math.max(1, time - getTime()), "timer", new Runnable() {
+			public void run() {
+				ticklessInterrupt(time);
+			}
+		});
+	}
+
+	private void ticklessInterrupt(long time) {
+		// replaced by an earlier interrupt
+		if (time != scheduledInterrupt)
+			return;
+
+		scheduledInterrupt = -1;
+
+		// cancelled, or moved to a later time
+		if (nextInterrupt == -1)
+			return;
+		if (nextInterrupt > getTime()) {
+			scheduleTicklessInterrupt(nextInterrupt);
+			return;
+		}
+
+		nextInterrupt = -1;
+		scheduleAutoGraderInterrupt();
+
+		lastTimerInterrupt = getTime();
+
+		if (handler != null)
+			handler.run();
+	}
+
 	private void scheduleInterrupt() {
 		int delay = Stats.TimerTicks;
 		delay += Lib.random(delay / 10) - (delay / 20);
@@ -87,6 +178,7 @@ public final class Timer {
 	}
 
 	private void scheduleAutoGraderInterrupt() {
-		privilege.interrupt.schedule(1, "timerAG", autoGraderInterrupt);
+		if (Machine.events().hasTimerListeners())
+			privilege.interrupt.schedule(1, "timerAG", autoGraderInterrupt);
 	}
 }
@@ -13,6 +13,7 @@ import java.awt.AWTPermission;
 import java.security.PrivilegedAction;
 import java.security.PrivilegedExceptionAction;
 import java.security.PrivilegedActionException;
+import java.util.function.IntConsumer;
 
 /**
  * Protects the environment from malicious Nachos code.
@@ -22,6 +23,8 @@ public class NachosSecurityManager extends SecurityManager {
 	private File testDirectory;
 	private boolean fullySecure;
 
+	private IntConsumer exitHandler = null;
+
 	private Thread privileged = null;
 	private int privilegeCount = 0;
 
@@ -51,6 +54,19 @@ public class NachosSecurityManager extends SecurityManager {
 		return new PrivilegeProvider();
 	}
 
+	/**
+	 * Exit by calling the specified handler and then killing the exiting
+	 * thread, instead of terminating the JVM. Used when the JVM hosts several
+	 * machines, and this security manager is not installed.
+	 *
+	 * @param exitHandler
+	 *            called with the exit status when Nachos exits; it must stop
+	 *            the machine's other threads.
+	 */
+	public void setExitHandler(IntConsumer exitHandler) {
+		this.exitHandler = exitHandler;
+	}
+
 	/**
 	 * Install this security manager.
 	 */
@@ -120,6 +136,15 @@ public class NachosSecurityManager extends SecurityManager {
 
 	private void exit(int exitStatus) {
 		forcePrivilege();
+
+		if (exitHandler != null) {
+			exitHandler.accept(exitStatus);
+
+			// the handler has stopped the machine's other threads, and this
+			// one dies too
+			throw new ThreadDeath();
+		}
+
 		System.exit(exitStatus);
 	}
 
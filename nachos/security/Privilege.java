@@ -162,6 +162,27 @@ public abstract class Privilege {
 		 *            user code.
 		 */
 		public void tick(boolean inKernelMode);
+
+		/**
+		 * Return the number of consecutive user mode ticks that can be
+		 * advanced before one of them would make an interrupt due. These
+		 * ticks may be advanced together using <tt>advanceUserTicks()</tt>;
+		 * the tick after them must be advanced using <tt>tick(false)</tt>.
+		 *
+		 * @return the number of ticks that no interrupt handler needs to see.
+		 */
+		public long userTicksBeforeDue();
+
+		/**
+		 * Advance the simulated time by the specified number of user mode
+		 * ticks at once, without checking for pending interrupts. Has the same
+		 * effect as that many calls to <tt>tick(false)</tt>, as long as
+		 * <tt>count</tt> is at most <tt>userTicksBeforeDue()</tt>.
+		 *
+		 * @param count
+		 *            the number of user mode ticks to advance.
+		 */
+		public void advanceUserTicks(long count);
 	}
 
 	/**
@@ -31,7 +31,12 @@ public class Alarm {
 	 * The timer interrupt handler. This is called by the machine's timer
 	 * periodically (approximately every 500 clock ticks). Causes the current
 	 * thread to yield, forcing a context switch if there is another thread that
-	 * should be run.
+	 * should be run, unless the scheduler lets it keep running.
+	 *
+	 * <p>
+	 * If the timer is tickless, it is only called when programmed by
+	 * <tt>scheduleTimer()</tt>, and the current thread only yields once its
+	 * time slice is over and another thread is ready.
 	 */
 	public void timerInterrupt() {
 		boolean status = Machine.interrupt().disable();
@@ -47,10 +52,51 @@ public class Alarm {
 				}
 			}
 		}
-		KThread.currentThread().yield();
+		if (Machine.timer().isTickless()) {
+			// 时间片用完且有其他就绪线程时才抢占
+			boolean sliceOver = KThread.numReadyThreads() > 0 && preemptionTime != -1
+					&& currentTime >= preemptionTime;
+			if (sliceOver || KThread.numReadyThreads() == 0)
+				preemptionTime = -1;
+			scheduleTimer();
+			if (sliceOver && ThreadedKernel.scheduler.preemptCurrentThread())
+				KThread.yield();
+		} else if (ThreadedKernel.scheduler.preemptCurrentThread()) {
+			KThread.currentThread().yield();
+		}
 		Machine.interrupt().restore(status);
 	}
 
+	/**
+	 * Called by <tt>KThread.ready()</tt> when the timer is tickless, so that
+	 * the running thread gets preempted once other threads are ready.
+	 */
+	public void threadReady() {
+		if (preemptionTime == -1)
+			scheduleTimer();
+	}
+
+	/**
+	 * Program a tickless timer for the earliest time a sleeping thread must
+	 * wake up, or the current time slice ends if other threads are ready.
+	 */
+	private void scheduleTimer() {
+		long next = -1;
+		for (SleepingThread sleepingThread : sleepingThreadList) {
+			if (next == -1 || sleepingThread.getWakeTime() < next)
+				next = sleepingThread.getWakeTime();
+		}
+
+		if (KThread.numReadyThreads() > 0) {
+			if (preemptionTime == -1)
+				preemptionTime = Machine.timer().getTime() + Stats.TimerTicks;// 开始新的时间片
+			if (next == -1 || preemptionTime < next)
+				next = preemptionTime;
+		}
+
+		Machine.timer().setNextInterrupt(next);
+	}
+
 	/**
 	 * Put the current thread to sleep for at least <i>x</i> ticks, waking it up
 	 * in the timer interrupt handler. The thread must be woken up (placed in
@@ -71,6 +117,8 @@ public class Alarm {
 		long wakeTime = Machine.timer().getTime() + x;
 		SleepingThread sleepingThread = new SleepingThread(KThread.currentThread(),wakeTime);
 		sleepingThreadList.add(sleepingThread);
+		if (Machine.timer().isTickless())
+			scheduleTimer();
 		
 //以下实现的是有序链表
 		
@@ -91,6 +139,9 @@ public class Alarm {
 		Machine.interrupt().restore(status);
 	}
 
+	/** 无节拍模式下当前时间片结束的时间，-1表示没有安排抢占 */
+	private long preemptionTime = -1;
+
 	public class SleepingThread {
 		private KThread thread = null;
 		private long wakeTime = 0;
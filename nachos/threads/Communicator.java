@@ -55,8 +55,9 @@ public class Communicator {
 			wordQueue.offer(word);
 			speaker.sleep();
 			listener.wake();
-			speakerCount--;
 		}else{
+			//由说者减少等待的听者数，否则被唤醒的听者运行前再次说话会丢失唤醒
+			listenerCount--;
 			wordQueue.offer(word);
 			listener.wake();
 		}
@@ -78,16 +79,59 @@ public class Communicator {
 		
 		lock.acquire();
 		if(speakerCount != 0){
+			//由听者减少等待的说者数，否则被唤醒的说者运行前再来的听者会白白等待
+			speakerCount--;
 			speaker.wake();
 			listener.sleep();
 		}else{
 			listenerCount ++;
 			listener.sleep();
-			listenerCount --;
 		}
 		lock.release();
 		Machine.interrupt().restore(status);
 		
 		return wordQueue.poll();
 	}
+
+	/**
+	 * Test if this module is working: a speaker waits, two listeners come
+	 * before it runs again, and then a second speaker comes. Each listener
+	 * must get one of the two words, and no thread may be left waiting.
+	 */
+	public static void selfTest() {
+		final Communicator communicator = new Communicator();
+		final int[] heard = new int[2];
+		final int[] finished = new int[1];
+
+		new KThread(new Runnable() {
+			public void run() {
+				communicator.speak(1);
+				finished[0]++;
+			}
+		}).setName("speaker 1").fork();
+
+		for (int i = 0; i < 2; i++) {
+			final int which = i;
+			new KThread(new Runnable() {
+				public void run() {
+					heard[which] = communicator.listen();
+					finished[0]++;
+				}
+			}).setName("listener " + i).fork();
+		}
+
+		new KThread(new Runnable() {
+			public void run() {
+				communicator.speak(2);
+				finished[0]++;
+			}
+		}).setName("speaker 2").fork();
+
+		// 等待的线程不会再运行，所以只让权有限次
+		for (int i = 0; i < 1000 && finished[0] < 4; i++)
+			KThread.yield();
+
+		Lib.assertTrue(finished[0] == 4, "communicator left " + (4 - finished[0]) + " threads waiting");
+		Lib.assertTrue(heard[0] + heard[1] == 3 && heard[0] * heard[1] == 2, "communicator lost a word");
+	}
 }
@@ -0,0 +1,684 @@
+package nachos.threads;
+
+import nachos.machine.*;
+import java.util.ArrayList;
+
+/**
+ * An earliest-deadline-first scheduler for periodic real-time threads.
+ *
+ * <p>
+ * A thread becomes a real-time thread by declaring, with
+ * <tt>setRealTime()</tt>, a period, a budget of ticks it may run in every
+ * period, and a relative deadline by which the work of each period must be
+ * done. A thread is only admitted if the density (budget divided by deadline)
+ * of all real-time threads stays at most 1, which guarantees that every
+ * deadline can be met.
+ *
+ * <p>
+ * Every real-time thread gets its budget back, and a new absolute deadline, at
+ * the start of every period. A queue chooses, first, the real-time thread
+ * with budget left and the earliest absolute deadline; then other threads,
+ * first come first served; and last, real-time threads that have used up
+ * their budget, in the order their budget comes back. The scheduler charges
+ * the running thread for the ticks it actually runs, and the timer preempts a
+ * real-time thread when it runs out of budget, or when a thread with an
+ * earlier deadline becomes ready, so budgets are enforced to within a timer
+ * interval. Threads that are not real-time are preempted by every timer
+ * interrupt, as with the round-robin scheduler.
+ *
+ * <p>
+ * A periodic thread ends the work of each period by calling
+ * <tt>waitForNextPeriod()</tt>, which records in the statistics whether the
+ * work was done by its deadline, and sleeps until the next period starts.
+ *
+ * <p>
+ * Threads have no priorities, so priority is not transferred.
+ */
+public class EDFScheduler extends Scheduler {
+
+	public EDFScheduler() {
+	}
+
+	public ThreadQueue newThreadQueue(boolean transferPriority) {
+		return new EDFQueue();
+	}
+
+	/**
+	 * Make the specified thread a real-time thread, or change its parameters,
+	 * if the total density of the real-time threads stays at most 1. The
+	 * first period of the thread starts now. Must be called with interrupts
+	 * disabled.
+	 *
+	 * @param thread
+	 *            the thread.
+	 * @param period
+	 *            the length of the thread's periods, in ticks.
+	 * @param budget
+	 *            the number of ticks the thread may run in every period.
+	 * @param deadline
+	 *            the number of ticks after the start of every period by which
+	 *            the thread must have done the work of the period.
+	 * @return <tt>true</tt> if the thread was admitted, or <tt>false</tt> if
+	 *         its parameters were left unchanged.
+	 */
+	public boolean setRealTime(KThread thread, int period, int budget, int deadline) {
+		Lib.assertTrue(Machine.interrupt().disabled());
+
+		Lib.assertTrue(budget > 0 && budget <= deadline && deadline <= period);
+
+		ThreadState state = getThreadState(thread);
+
+		double density = state.getDensity();
+		if (utilization - density + (double) budget / deadline > 1 + 1e-9)
+			return false;
+
+		EDFQueue queue = state.waitingOn;
+		if (queue != null)
+			queue.remove(state);
+
+		long now = Machine.timer().getTime();
+
+		utilization += (double) budget / deadline - density;
+		state.realTime = true;
+		state.period = period;
+		state.budget = budget;
+		state.relativeDeadline = deadline;
+		state.periodStart = state.jobRelease = now;
+		state.remaining = budget;
+		state.deadline = state.jobDeadline = now + deadline;
+		state.lastCharged = now;
+
+		if (queue != null)
+			queue.add(state);
+
+		return true;
+	}
+
+	/**
+	 * Make the specified thread an ordinary thread again, giving up its share
+	 * of the processor. Must be called with interrupts disabled.
+	 *
+	 * @param thread
+	 *            the thread.
+	 */
+	public void clearRealTime(KThread thread) {
+		Lib.assertTrue(Machine.interrupt().disabled());
+
+		ThreadState state = getThreadState(thread);
+		if (!state.realTime)
+			return;
+
+		EDFQueue queue = state.waitingOn;
+		if (queue != null)
+			queue.remove(state);
+
+		utilization -= state.getDensity();
+		state.realTime = false;
+
+		if (queue != null)
+			queue.add(state);
+	}
+
+	/**
+	 * Return the total density of the admitted real-time threads.
+	 *
+	 * @return the sum of budget divided by deadline over the real-time
+	 *         threads.
+	 */
+	public double getUtilization() {
+		return utilization;
+	}
+
+	/**
+	 * End the work of the current period of the current thread, which must be
+	 * a real-time thread. Records whether the work was done by its deadline,
+	 * and sleeps until the next period starts. If the thread is late enough
+	 * that the next period has already started, it returns at once, and the
+	 * work of that period is due by that period's deadline.
+	 *
+	 * @return <tt>true</tt> if the work was done by its deadline.
+	 */
+	public boolean waitForNextPeriod() {
+		boolean intStatus = Machine.interrupt().disable();
+
+		ThreadState state = getThreadState(KThread.currentThread());
+		Lib.assertTrue(state.realTime);
+
+		long now = Machine.timer().getTime();
+		boolean met = state.endPeriod(now);
+		Machine.timer().recordDeadline(met);
+		long release = state.jobRelease;
+
+		Machine.interrupt().restore(intStatus);
+
+		if (release > now)
+			ThreadedKernel.alarm.waitUntil(release - now);
+
+		return met;
+	}
+
+	/**
+	 * Charge the current thread, and preempt it unless it is a real-time
+	 * thread with budget left, and no thread with an earlier deadline may be
+	 * ready. If the budget of threads waiting without budget has come back,
+	 * move them back to the deadline heap of their queue, and preempt the
+	 * current thread.
+	 */
+	public boolean preemptCurrentThread() {
+		Lib.assertTrue(Machine.interrupt().disabled());
+
+		ThreadState state = chargeCurrentThread();
+
+		boolean preempt = !state.isEligible() || preemptPending;
+		preemptPending = false;
+
+		long now = Machine.timer().getTime();
+		if (now >= nextReplenish && replenish(now))
+			preempt = true;
+
+		return preempt;
+	}
+
+	/**
+	 * Give the threads whose budget has come back by <i>now</i> their budget
+	 * back, in every queue that has threads waiting without budget, and find
+	 * the next time a budget comes back.
+	 *
+	 * @return <tt>true</tt> if any thread got its budget back.
+	 */
+	private boolean replenish(long now) {
+		boolean replenished = false;
+
+		// 恢复所有队列中到期线程的预算，其余线程的恢复时间重新取最小值
+		nextReplenish = Long.MAX_VALUE;
+		for (int i = replenishing.size() - 1; i >= 0; i--) {
+			EDFQueue queue = replenishing.get(i);
+			if (queue.replenish(now))
+				replenished = true;
+
+			if (queue.exhausted.size == 0) {
+				queue.listed = false;
+				replenishing.remove(i);
+			} else {
+				nextReplenish = Math.min(nextReplenish, queue.exhausted.peek().getReplenishTime());
+			}
+		}
+
+		return replenished;
+	}
+
+	/**
+	 * Charge the current thread for the ticks it has run since it was last
+	 * charged or chosen.
+	 */
+	private ThreadState chargeCurrentThread() {
+		long now = Machine.timer().getTime();
+
+		ThreadState state = getThreadState(KThread.currentThread());
+		if (state.realTime) {
+			state.remaining -= now - state.lastCharged;
+			state.refresh(now);
+		}
+		state.lastCharged = now;
+
+		return state;
+	}
+
+	/**
+	 * Return the scheduling state of the specified thread.
+	 *
+	 * @param thread
+	 *            the thread whose scheduling state to return.
+	 * @return the scheduling state of the specified thread.
+	 */
+	protected ThreadState getThreadState(KThread thread) {
+		if (thread.schedulingState == null)
+			thread.schedulingState = new ThreadState(thread);
+
+		return (ThreadState) thread.schedulingState;
+	}
+
+	/**
+	 * Test if this scheduler is working, by driving its queues directly with
+	 * interrupts disabled, so that no time passes and no deadline is counted
+	 * in the statistics. Checks the admission test, the order in which a
+	 * queue chooses threads, that the current thread is preempted once its
+	 * budget is used up, that budgets come back in every queue that has
+	 * threads waiting without budget, and when the end of a period counts as
+	 * a met deadline. Must be called while this is the kernel's scheduler,
+	 * before any thread is made a real-time thread.
+	 */
+	public static void selfTest() {
+		Lib.assertTrue(ThreadedKernel.scheduler instanceof EDFScheduler);
+		EDFScheduler scheduler = (EDFScheduler) ThreadedKernel.scheduler;
+
+		boolean intStatus = Machine.interrupt().disable();
+
+		long now = Machine.timer().getTime();
+
+		KThread a = new KThread().setName("EDF test a");
+		KThread b = new KThread().setName("EDF test b");
+		KThread c = new KThread().setName("EDF test c");
+		KThread d = new KThread().setName("EDF test d");
+
+		Lib.assertTrue(scheduler.setRealTime(a, 1000, 500, 1000) && scheduler.setRealTime(b, 1000, 400, 1000),
+				"EDF test threads were not admitted");
+		Lib.assertTrue(!scheduler.setRealTime(c, 1000, 200, 1000), "EDF admitted a density over 1");
+		scheduler.clearRealTime(a);
+		scheduler.clearRealTime(b);
+		Lib.assertTrue(Math.abs(scheduler.getUtilization()) < 1e-9);
+
+		// 截止时间早的先选，然后是普通线程，最后是预算用完的线程
+		ThreadQueue queue = scheduler.newThreadQueue(false);
+		scheduler.setRealTime(a, 20000, 8000, 20000);
+		scheduler.setRealTime(b, 5000, 1000, 5000);
+		scheduler.setRealTime(d, 10000, 1000, 10000);
+		scheduler.getThreadState(d).remaining = 0;
+		queue.waitForAccess(d);
+		queue.waitForAccess(c);
+		queue.waitForAccess(a);
+		queue.waitForAccess(b);
+		Lib.assertTrue(queue.nextThread() == b && queue.nextThread() == a && queue.nextThread() == c
+				&& queue.nextThread() == d && queue.nextThread() == null, "EDF chose threads in the wrong order");
+
+		// 当前线程用完预算时被抢占
+		KThread current = KThread.currentThread();
+		scheduler.preemptPending = false;
+		scheduler.setRealTime(current, 10000, 1000, 10000);
+		Lib.assertTrue(!scheduler.preemptCurrentThread(), "EDF preempted a thread with budget left");
+		scheduler.getThreadState(current).remaining = 0;
+		Lib.assertTrue(scheduler.preemptCurrentThread(), "EDF did not preempt a thread without budget");
+		scheduler.clearRealTime(current);
+
+		// 两个队列中都有预算用完的线程：恢复到期的一个，并记住另一个的恢复时间
+		ThreadQueue other = scheduler.newThreadQueue(false);
+		ThreadState due = scheduler.getThreadState(a);
+		ThreadState later = scheduler.getThreadState(b);
+		due.remaining = later.remaining = 0;
+		due.periodStart = now - due.period + 1;
+		later.periodStart = now - later.period + 2;
+		queue.waitForAccess(a);
+		other.waitForAccess(b);
+		Lib.assertTrue(scheduler.nextReplenish == now + 1);
+		Lib.assertTrue(scheduler.replenish(now + 1), "EDF did not give a budget back");
+		Lib.assertTrue(due.isEligible() && !later.isEligible() && scheduler.nextReplenish == now + 2,
+				"EDF lost the replenish time of another queue");
+		Lib.assertTrue(queue.nextThread() == a && other.nextThread() == b);
+
+		// 在截止时间之前结束周期算作满足
+		long release = due.jobRelease;
+		due.jobDeadline = now;
+		Lib.assertTrue(due.endPeriod(now), "EDF missed a deadline that was met");
+		Lib.assertTrue(due.jobRelease == release + due.period && due.jobDeadline == due.jobRelease + due.relativeDeadline);
+		due.jobDeadline = now - 1;
+		Lib.assertTrue(!due.endPeriod(now), "EDF met a deadline that was missed");
+
+		scheduler.clearRealTime(a);
+		scheduler.clearRealTime(b);
+		scheduler.clearRealTime(d);
+		Lib.assertTrue(Math.abs(scheduler.getUtilization()) < 1e-9);
+		scheduler.preemptPending = false;
+
+		Machine.interrupt().restore(intStatus);
+	}
+
+	/**
+	 * A <tt>ThreadQueue</tt> that keeps real-time threads with budget left in
+	 * a heap by deadline, other threads in a FIFO list, and real-time threads
+	 * without budget in a heap by the time their budget comes back.
+	 */
+	protected class EDFQueue extends ThreadQueue {
+
+		public void waitForAccess(KThread thread) {
+			Lib.assertTrue(Machine.interrupt().disabled());
+
+			ThreadState state = getThreadState(thread);
+
+			if (thread == KThread.currentThread()) {
+				chargeCurrentThread();
+			} else {
+				// 被唤醒的线程截止时间更早时，在下一次时钟中断抢占当前线程
+				state.refresh(Machine.timer().getTime());
+				ThreadState current = getThreadState(KThread.currentThread());
+				if (state.isEligible() && (!current.isEligible() || state.deadline < current.deadline))
+					preemptPending = true;
+			}
+
+			add(state);
+		}
+
+		public KThread nextThread() {
+			Lib.assertTrue(Machine.interrupt().disabled());
+
+			chargeCurrentThread();
+
+			long now = Machine.timer().getTime();
+
+			replenish(now);
+
+			// 堆顶的线程可能已经进入了新的周期
+			while (ready.size > 0 && ready.peek().refresh(now)) {
+				ThreadState state = ready.peek();
+				ready.remove(state);
+				ready.add(state);
+			}
+
+			ThreadState state;
+			if (ready.size > 0)
+				state = ready.peek();
+			else if (first != null)
+				state = first;
+			else if (exhausted.size > 0)
+				state = exhausted.peek();
+			else
+				return null;
+
+			remove(state);
+
+			if (exhausted.size > 0)
+				nextReplenish = Math.min(nextReplenish, exhausted.peek().getReplenishTime());
+
+			// 被选中的线程从现在开始计费
+			state.lastCharged = now;
+
+			return state.thread;
+		}
+
+		/**
+		 * Move the threads whose budget has come back from the heap of
+		 * threads without budget to the heap by deadline.
+		 *
+		 * @return <tt>true</tt> if any thread was moved.
+		 */
+		boolean replenish(long now) {
+			boolean replenished = false;
+
+			// 预算恢复的线程回到按截止时间排序的堆
+			while (exhausted.size > 0 && exhausted.peek().getReplenishTime() <= now) {
+				ThreadState state = exhausted.peek();
+				exhausted.remove(state);
+				state.refresh(now);
+				ready.add(state);
+				replenished = true;
+			}
+
+			return replenished;
+		}
+
+		/**
+		 * Nothing to do: threads have no priority to transfer.
+		 */
+		public void acquire(KThread thread) {
+			Lib.assertTrue(Machine.interrupt().disabled());
+		}
+
+		public void print() {
+			Lib.assertTrue(Machine.interrupt().disabled());
+
+			for (int i = 0; i < ready.size; i++)
+				System.out.print(" " + ready.heap[i].thread + "(deadline " + ready.heap[i].deadline + ")");
+			for (ThreadState state = first; state != null; state = state.next)
+				System.out.print(" " + state.thread);
+			for (int i = 0; i < exhausted.size; i++)
+				System.out.print(" " + exhausted.heap[i].thread + "(exhausted)");
+			System.out.println();
+		}
+
+		/**
+		 * Add a thread to the heap or list for its kind.
+		 */
+		void add(ThreadState state) {
+			state.waitingOn = this;
+			state.sequence = nextSequence++;
+
+			if (!state.realTime) {
+				state.next = null;
+				state.prev = last;
+				if (last == null)
+					first = state;
+				else
+					last.next = state;
+				last = state;
+			} else if (state.remaining > 0) {
+				ready.add(state);
+			} else {
+				exhausted.add(state);
+				nextReplenish = Math.min(nextReplenish, state.getReplenishTime());
+				if (!listed) {
+					listed = true;
+					replenishing.add(this);
+				}
+			}
+		}
+
+		/**
+		 * Remove a thread from the heap or list it is in.
+		 */
+		void remove(ThreadState state) {
+			if (state.heap != null) {
+				state.heap.remove(state);
+			} else {
+				if (state.prev == null)
+					first = state.next;
+				else
+					state.prev.next = state.next;
+				if (state.next == null)
+					last = state.prev;
+				else
+					state.next.prev = state.prev;
+				state.prev = state.next = null;
+			}
+
+			state.waitingOn = null;
+		}
+
+		private Heap ready = new Heap(false);
+		private Heap exhausted = new Heap(true);
+		/** The first and last thread that is not a real-time thread. */
+		private ThreadState first = null, last = null;
+		private long nextSequence = 0;
+		/** <tt>true</tt> if this queue is in the scheduler's list of queues
+		 * with threads waiting without budget. */
+		private boolean listed = false;
+	}
+
+	/**
+	 * A binary heap of threads, ordered by deadline or by the time their
+	 * budget comes back, and then by how long they have waited.
+	 */
+	private class Heap {
+		Heap(boolean byReplenishTime) {
+			this.byReplenishTime = byReplenishTime;
+		}
+
+		ThreadState peek() {
+			return heap[0];
+		}
+
+		void add(ThreadState state) {
+			if (size == heap.length) {
+				ThreadState[] newHeap = new ThreadState[heap.length * 2];
+				System.arraycopy(heap, 0, newHeap, 0, size);
+				heap = newHeap;
+			}
+
+			state.heap = this;
+			heap[size] = state;
+			state.index = size++;
+			siftUp(state.index);
+		}
+
+		void remove(ThreadState state) {
+			int index = state.index;
+
+			size--;
+			if (index != size) {
+				heap[index] = heap[size];
+				heap[index].index = index;
+				siftDown(siftUp(index));
+			}
+			heap[size] = null;
+			state.heap = null;
+		}
+
+		private int siftUp(int index) {
+			ThreadState state = heap[index];
+
+			while (index > 0) {
+				int parent = (index - 1) / 2;
+				if (!before(state, heap[parent]))
+					break;
+				heap[index] = heap[parent];
+				heap[index].index = index;
+				index = parent;
+			}
+
+			heap[index] = state;
+			state.index = index;
+			return index;
+		}
+
+		private void siftDown(int index) {
+			ThreadState state = heap[index];
+
+			while (true) {
+				int child = 2 * index + 1;
+				if (child >= size)
+					break;
+				if (child + 1 < size && before(heap[child + 1], heap[child]))
+					child++;
+				if (!before(heap[child], state))
+					break;
+				heap[index] = heap[child];
+				heap[index].index = index;
+				index = child;
+			}
+
+			heap[index] = state;
+			state.index = index;
+		}
+
+		private boolean before(ThreadState a, ThreadState b) {
+			long keyA = byReplenishTime ? a.getReplenishTime() : a.deadline;
+			long keyB = byReplenishTime ? b.getReplenishTime() : b.deadline;
+			return keyA < keyB || (keyA == keyB && a.sequence < b.sequence);
+		}
+
+		private boolean byReplenishTime;
+		private ThreadState[] heap = new ThreadState[4];
+		private int size = 0;
+	}
+
+	/**
+	 * The scheduling state of a thread.
+	 *
+	 * @see nachos.threads.KThread#schedulingState
+	 */
+	protected class ThreadState {
+
+		/**
+		 * Allocate a new <tt>ThreadState</tt> object and associate it with the
+		 * specified thread.
+		 *
+		 * @param thread
+		 *            the thread this state belongs to.
+		 */
+		public ThreadState(KThread thread) {
+			this.thread = thread;
+		}
+
+		/**
+		 * Return <tt>true</tt> if this is a real-time thread with budget left
+		 * in its current period.
+		 */
+		boolean isEligible() {
+			return realTime && remaining > 0;
+		}
+
+		/**
+		 * Return the density the thread takes from the admission test.
+		 */
+		double getDensity() {
+			return realTime ? (double) budget / relativeDeadline : 0;
+		}
+
+		/**
+		 * Return the time at which the thread's next period starts.
+		 */
+		long getReplenishTime() {
+			return periodStart + period;
+		}
+
+		/**
+		 * End the work of the current period: move the release time and
+		 * deadline of the work to the next period.
+		 *
+		 * @return <tt>true</tt> if the work was done by its deadline.
+		 */
+		boolean endPeriod(long now) {
+			boolean met = now <= jobDeadline;
+
+			jobRelease += period;
+			jobDeadline = jobRelease + relativeDeadline;
+			return met;
+		}
+
+		/**
+		 * If a new period has started, give the thread its budget back and
+		 * move its deadline.
+		 *
+		 * @return <tt>true</tt> if a new period has started.
+		 */
+		boolean refresh(long now) {
+			if (!realTime || now < periodStart + period)
+				return false;
+
+			periodStart += (now - periodStart) / period * period;
+			remaining = budget;
+			deadline = periodStart + relativeDeadline;
+			return true;
+		}
+
+		/** The thread with which this object is associated. */
+		protected KThread thread;
+
+		/** <tt>true</tt> if the thread has been admitted as real-time. */
+		boolean realTime = false;
+		int period, budget, relativeDeadline;
+
+		/** The start of the current period. */
+		long periodStart;
+		/** The absolute deadline of the current period. */
+		long deadline;
+		/** The ticks the thread may still run in the current period. */
+		long remaining;
+		/** The time up to which the thread has been charged. */
+		long lastCharged = 0;
+
+		/** The release time and deadline of the work ended by the next
+		 * <tt>waitForNextPeriod()</tt>. */
+		long jobRelease, jobDeadline;
+
+		/** The queue the thread waits on, or <tt>null</tt>. */
+		EDFQueue waitingOn = null;
+
+		/** The heap the thread is in, if any, and its place in the heap. */
+		private Heap heap = null;
+		private int index;
+		/** The neighbours of the thread in the FIFO list it waits in. */
+		private ThreadState prev = null, next = null;
+		/** When the thread started to wait, to break ties first come first served. */
+		private long sequence;
+	}
+
+	/** The total density of the admitted real-time threads. */
+	private double utilization = 0;
+
+	/** The earliest time the budget of a thread waiting without budget comes back. */
+	private long nextReplenish = Long.MAX_VALUE;
+	/** The queues that may have threads waiting without budget. */
+	private ArrayList<EDFQueue> replenishing = new ArrayList<EDFQueue>();
+
+	/** Set when a thread with an earlier deadline than the current one wakes up. */
+	private boolean preemptPending = false;
+}
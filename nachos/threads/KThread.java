@@ -26,6 +26,7 @@ public class KThread {
 	private static KThread currentThread = null;
 	private static KThread toBeDestroyed = null;
 	private static KThread idleThread = null;
+	private static int numReadyThreads = 0;// 就绪队列中的线程数（不含idle线程）
 
 	/**
 	 * Additional state used by schedulers.
@@ -95,7 +96,7 @@ public class KThread {
 		Lib.debug(dbgThread, "Finishing thread: " + currentThread.toString());
 
 		Machine.interrupt().disable();
-		Machine.autoGrader().finishingCurrentThread();// 将TCB变成将要结束的TCB
+		Machine.events().finishingCurrentThread();// 将TCB变成将要结束的TCB
 		Lib.assertTrue(toBeDestroyed == null);
 
 		toBeDestroyed = currentThread;// 将当前线程变为将要结束的线程，下一个线程运行的时候自动消除它
@@ -120,9 +121,15 @@ public class KThread {
 
 	private static void runNextThread() {// 执行下一个线程
 		KThread nextThread = readyQueue.nextThread();
+		if (nextThread != null)
+			numReadyThreads--;
 
-		if (nextThread == null)
+		if (nextThread == null) {
+			// idle线程让出CPU而没有其他线程可运行时，时间直接跳到下一个中断之前
+			if (currentThread == idleThread)
+				Machine.interrupt().idle();
 			nextThread = idleThread;// 如果线程队列为空则执行idle线程
+		}
 
 		nextThread.run();
 	}
@@ -161,9 +168,13 @@ public class KThread {
 
 		if (this != idleThread) {
 			readyQueue.waitForAccess(this);
+			numReadyThreads++;
+			// 无节拍模式下，有线程就绪时需要安排抢占时间
+			if (ThreadedKernel.alarm != null && Machine.timer().isTickless())
+				ThreadedKernel.alarm.threadReady();
 
 		} // 将线程移入队列，idle线程不用放入等待队列
-		Machine.autoGrader().readyThread(this);// 空方法
+		Machine.events().readyThread(this);// 无订阅者时为空操作
 	}
 
 	private static void createIdleThread() {
@@ -178,7 +189,7 @@ public class KThread {
 			}// idle线程一直执行的操作是yield（放弃）
 		});
 		idleThread.setName("idle");
-		Machine.autoGrader().setIdleThread(idleThread);// 空方法
+		Machine.events().setIdleThread(idleThread);// 无订阅者时为空操作
 		idleThread.fork();
 	}
 
@@ -189,7 +200,7 @@ public class KThread {
 		Lib.assertTrue(this == currentThread);
 		Lib.assertTrue(tcb == TCB.currentTCB());
 
-		Machine.autoGrader().runningThread(this);
+		Machine.events().runningThread(this);
 		status = statusRunning;
 		if (toBeDestroyed != null) {
 			toBeDestroyed.tcb.destroy();
@@ -219,6 +230,16 @@ public class KThread {
 		return currentThread;
 	}
 
+	/**
+	 * Return the number of threads in the ready queue, not counting the idle
+	 * thread.
+	 *
+	 * @return the number of ready threads waiting to run.
+	 */
+	public static int numReadyThreads() {
+		return numReadyThreads;
+	}
+
 	private static class PingTest implements Runnable {
 		PingTest(int which) {
 			this.which = which;
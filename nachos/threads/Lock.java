@@ -33,6 +33,7 @@ public class Lock {
 		Lib.assertTrue(!isHeldByCurrentThread());
 
 		boolean intStatus = Machine.interrupt().disable();
+		Machine.interrupt().charge(CostModel.lockOperation);
 
 		KThread thread = KThread.currentThread();
 
@@ -56,6 +57,7 @@ public class Lock {
 		Lib.assertTrue(isHeldByCurrentThread());
 
 		boolean intStatus = Machine.interrupt().disable();
+		Machine.interrupt().charge(CostModel.lockOperation);
 
 		if ((lockHolder = waitQueue.nextThread()) != null)
 			lockHolder.ready();
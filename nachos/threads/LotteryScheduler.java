@@ -1,9 +1,37 @@
 package nachos.threads;
 
 import nachos.machine.*;
-import java.util.LinkedList;
-import java.util.Random;
-
+import java.util.ArrayList;
+
+/**
+ * A scheduler that chooses threads using a lottery.
+ *
+ * <p>
+ * A lottery scheduler associates a number of tickets with each thread. When a
+ * thread needs to be dequeued, a random lottery is held, among all the tickets
+ * of all the threads waiting to be dequeued. The thread that holds the winning
+ * ticket is chosen. If every waiting thread holds no tickets, any of them may
+ * be chosen.
+ *
+ * <p>
+ * Note that a lottery scheduler must be able to handle a lot of tickets
+ * (sometimes billions), so it is not acceptable to maintain state for every
+ * ticket.
+ *
+ * <p>
+ * A lottery scheduler must partially solve the priority inversion problem; in
+ * particular, tickets must be transferred through locks, and through joins.
+ * Unlike a priority scheduler, these tickets add (as opposed to just taking
+ * the maximum).
+ *
+ * <p>
+ * Each queue keeps the tickets of its waiting threads in a Fenwick tree, so
+ * that holding a lottery, adding or removing a thread and changing its tickets
+ * take time logarithmic in the number of waiting threads. Every thread caches
+ * its effective tickets, and a change is passed along the chain of queues and
+ * holders it affects. The lottery draws from <tt>Lib.random()</tt>, so a run
+ * is repeated exactly by running it with the same <tt>-s</tt> seed.
+ */
 public class LotteryScheduler extends Scheduler {
 
 	/**
@@ -14,7 +42,7 @@ public class LotteryScheduler extends Scheduler {
 	public static final int priorityMinimum = 0; // 线程最低优先级是0
 
 	public static final int priorityMaximum = 7; // 线程最高优先级是7
-	
+
 	public LotteryScheduler() {
 	}
 
@@ -48,8 +76,10 @@ public class LotteryScheduler extends Scheduler {
 		KThread thread = KThread.currentThread();
 
 		int priority = getPriority(thread);
-		if (priority == priorityMaximum)
+		if (priority == priorityMaximum) {
+			Machine.interrupt().restore(intStatus);
 			return false;
+		}
 
 		setPriority(thread, priority + 1);
 
@@ -63,8 +93,10 @@ public class LotteryScheduler extends Scheduler {
 		KThread thread = KThread.currentThread();
 
 		int priority = getPriority(thread);
-		if (priority == priorityMinimum)
+		if (priority == priorityMinimum) {
+			Machine.interrupt().restore(intStatus);
 			return false;
+		}
 
 		setPriority(thread, priority - 1);
 
@@ -88,19 +120,10 @@ public class LotteryScheduler extends Scheduler {
 	}
 
 	/**
-	 * A <tt>ThreadQueue</tt> that sorts threads by priority.
+	 * A <tt>ThreadQueue</tt> that chooses threads by lottery.
 	 */
 	protected class LotteryQueue extends ThreadQueue {
 
-		/**
-		 * <tt>true</tt> if this queue should transfer priority from waiting
-		 * threads to the owning thread.
-		 */
-		public boolean transferPriority;
-		public LinkedList<ThreadState> waitQueue = new LinkedList<ThreadState>();
-		public ThreadState linkedthread = null;
-		//private int index;
-		
 		LotteryQueue(boolean transferPriority) {
 			this.transferPriority = transferPriority;
 		}
@@ -109,128 +132,304 @@ public class LotteryScheduler extends Scheduler {
 			Lib.assertTrue(Machine.interrupt().disabled());
 
 			getThreadState(thread).waitForAccess(this);
-
 		}
 
 		public void acquire(KThread thread) {
 			Lib.assertTrue(Machine.interrupt().disabled());
 
-			if (!thread.getName().equals("main")) {
-				getThreadState(thread).acquire(this);
-			}
+			getThreadState(thread).acquire(this);
 		}
 
 		public KThread nextThread() {
-
 			Lib.assertTrue(Machine.interrupt().disabled());
 
-			if (waitQueue.isEmpty())
+			if (count == 0) {
+				// 没有等待的线程，持有者释放队列
+				if (holder != null)
+					holder.release(this);
 				return null;
-
-			int alltickets = 0;//彩票总数
-			
-			for (int i = 0; i < waitQueue.size(); i++)// 计算队列中所有彩票的总数
-			{
-				ThreadState thread = waitQueue.get(i);
-				alltickets  +=  thread.getEffectivePriority();
 			}
 
-			Random random = new Random();
-			int numOfWin = random.nextInt(alltickets + 1);// 产生中奖的彩票号
-			int nowtickets = 0;
-			KThread winThread = null;
-			ThreadState thread = null;
-			
-			for (int i = 0; i < waitQueue.size(); i++)// 得到获胜的线程
-			{
-				thread = waitQueue.get(i);
-				//nowtickets += thread.getEffectivePriority();
-				nowtickets += thread.getPriority();
-				if (nowtickets >= numOfWin) {
-					winThread = thread.thread;
-					break;
-				}
-			}
+			ThreadState winner;
+			if (totalTickets > 0)
+				winner = slots[find(tickets, Lib.random(totalTickets))];// 抽出中奖的彩票
+			else
+				winner = slots[find(occupied, Lib.random(count))];
 
-			if (winThread != null){
-				waitQueue.remove(thread);
-			}
-			
-			return winThread;
+			remove(winner);
+			winner.waitingOn = null;
+
+			// 中奖线程的彩票不再捐赠给持有者
+			if (transferPriority && holder != null)
+				holder.addTickets(-winner.effectiveTickets);
+
+			winner.acquire(this);
+
+			return winner.thread;
 		}
 
 		/**
 		 * Return the next thread that <tt>nextThread()</tt> would return,
-		 * without modifying the state of this queue.
+		 * without modifying the state of this queue. The winner of a lottery
+		 * is not known until it is held, so this always returns
+		 * <tt>null</tt>.
 		 *
-		 * @return the next thread that <tt>nextThread()</tt> would return.
+		 * @return <tt>null</tt>.
 		 */
 		protected ThreadState pickNextThread() {
-			// implement me (if you want)
 			return null;
 		}
 
 		public void print() {
 			Lib.assertTrue(Machine.interrupt().disabled());
-			// implement me (if you want)
+
+			for (int i = 1; i < slots.length; i++) {
+				if (slots[i] != null)
+					System.out.print(" " + slots[i].thread + "(" + slots[i].effectiveTickets + ")");
+			}
+			System.out.println();
 		}
-	}
 
-	protected class ThreadState {
+		/**
+		 * Return the total number of tickets held by the waiting threads.
+		 */
+		int getTotalTickets() {
+			return totalTickets;
+		}
 
-		protected KThread thread;// 这个对象关联的线程
+		/**
+		 * Give a waiting thread a free slot, and enter its tickets.
+		 */
+		void add(ThreadState state) {
+			if (freeSlots == 0)
+				grow();
+
+			int slot = free[--freeSlots];
+			slots[slot] = state;
+			state.slot = slot;
+
+			update(tickets, slot, state.effectiveTickets);
+			update(occupied, slot, 1);
+			totalTickets += state.effectiveTickets;
+			count++;
+		}
 
-		protected int priority;// 关联线程的优先级
+		/**
+		 * Take a waiting thread's tickets out, and free its slot.
+		 */
+		void remove(ThreadState state) {
+			int slot = state.slot;
+
+			update(tickets, slot, -state.effectiveTickets);
+			update(occupied, slot, -1);
+			totalTickets -= state.effectiveTickets;
+			count--;
+
+			slots[slot] = null;
+			state.slot = 0;
+			free[freeSlots++] = slot;
+		}
 
-		protected int effectivepriority;// 有效优先级
+		/**
+		 * Change the tickets of a waiting thread by <i>delta</i>.
+		 */
+		void changeTickets(ThreadState state, int delta) {
+			update(tickets, state.slot, delta);
+			totalTickets += delta;
+		}
+
+		/**
+		 * Add <i>delta</i> at position <i>slot</i> of a Fenwick tree.
+		 */
+		private void update(int[] tree, int slot, int delta) {
+			for (int i = slot; i < tree.length; i += i & -i)
+				tree[i] += delta;
+		}
+
+		/**
+		 * Return the first slot at which the running sum of a Fenwick tree
+		 * exceeds <i>value</i>.
+		 */
+		private int find(int[] tree, int value) {
+			int slot = 0;
+			for (int step = Integer.highestOneBit(tree.length - 1); step > 0; step >>= 1) {
+				if (slot + step < tree.length && tree[slot + step] <= value) {
+					slot += step;
+					value -= tree[slot];
+				}
+			}
+			return slot + 1;
+		}
+
+		/**
+		 * Double the number of slots, and rebuild both trees.
+		 */
+		private void grow() {
+			int capacity = slots.length - 1;
+			int newCapacity = Math.max(capacity * 2, 4);
+
+			ThreadState[] oldSlots = slots;
+			slots = new ThreadState[newCapacity + 1];
+			System.arraycopy(oldSlots, 0, slots, 0, oldSlots.length);
+			tickets = new int[newCapacity + 1];
+			occupied = new int[newCapacity + 1];
+
+			for (int i = 1; i <= capacity; i++) {
+				tickets[i] += slots[i].effectiveTickets;
+				occupied[i] += 1;
+				int parent = i + (i & -i);
+				if (parent <= newCapacity) {
+					tickets[parent] += tickets[i];
+					occupied[parent] += occupied[i];
+				}
+			}
+
+			// 新的空位从小到大分配，使树保持紧凑
+			free = new int[newCapacity];
+			freeSlots = 0;
+			for (int i = newCapacity; i > capacity; i--)
+				free[freeSlots++] = i;
+		}
 
-		protected LotteryQueue waitQueue;
-		
+		/**
+		 * <tt>true</tt> if this queue should transfer tickets from waiting
+		 * threads to the owning thread.
+		 */
+		public boolean transferPriority;
+
+		/** The thread that last acquired this queue, if it transfers tickets. */
+		ThreadState holder = null;
+
+		/** The waiting thread in each slot; slot 0 is never used. */
+		private ThreadState[] slots = new ThreadState[1];
+		/** Fenwick trees of the tickets and the number of threads by slot. */
+		private int[] tickets = new int[1], occupied = new int[1];
+		/** The slots that hold no thread. */
+		private int[] free = new int[0];
+		private int freeSlots = 0;
+
+		private int totalTickets = 0;
+		private int count = 0;
+	}
+
+	/**
+	 * The scheduling state of a thread: its tickets, its effective tickets, the
+	 * queues it holds, and the queue it waits on, if any.
+	 *
+	 * @see nachos.threads.KThread#schedulingState
+	 */
+	protected class ThreadState extends TicketChain {
+
+		/**
+		 * Allocate a new <tt>ThreadState</tt> object and associate it with the
+		 * specified thread.
+		 *
+		 * @param thread
+		 *            the thread this state belongs to.
+		 */
 		public ThreadState(KThread thread) {
 			this.thread = thread;
-			setPriority(priorityDefault);
-			waitQueue = new LotteryQueue(true);
+
+			priority = effectiveTickets = priorityDefault;
 		}
 
 		public int getPriority() {
 			return priority;
 		}
 
+		/**
+		 * Return the effective tickets of the associated thread: its own
+		 * tickets plus the effective tickets of the threads waiting for the
+		 * queues it holds.
+		 */
 		public int getEffectivePriority() {
-			// 得到有效优先级
-			// implement me
-			effectivepriority = priority;
-
-			for (int i = 0; i < waitQueue.waitQueue.size(); i++)
-
-				effectivepriority = effectivepriority + waitQueue.waitQueue.get(i).getEffectivePriority();// 把等待线程持有的彩票的总数给这个线程
-
-			return effectivepriority;
-
+			return effectiveTickets;
 		}
 
 		public void setPriority(int priority) {// 优先级传递
 			if (this.priority == priority)
 				return;
+
+			int delta = priority - this.priority;
 			this.priority = priority;
 
-			// implement me
+			addTickets(delta);
 		}
 
+		/**
+		 * Called when the associated thread starts waiting on
+		 * <tt>waitQueue</tt>; its tickets go to the queue's holder if the
+		 * queue transfers tickets.
+		 */
 		public void waitForAccess(LotteryQueue waitQueue) {
 			// 将此线程状态存入传入的等待队列
-			// implement me
-			waitQueue.waitQueue.add(this);
+			Lib.assertTrue(waitingOn == null);
 
-			if (waitQueue.linkedthread != null && waitQueue.linkedthread != this) {
-				waitQueue.linkedthread.waitQueue.waitForAccess(this.thread);
-			}
+			waitingOn = waitQueue;
+			waitQueue.add(this);
+
+			if (waitQueue.transferPriority && waitQueue.holder != null)
+				waitQueue.holder.addTickets(effectiveTickets);
 		}
 
+		/**
+		 * Called when the associated thread acquires <tt>waitQueue</tt>,
+		 * either through <tt>acquire()</tt> or by winning its lottery.
+		 */
 		public void acquire(LotteryQueue waitQueue) {
 			// 相当于一个线程持有的队列锁
+			if (!waitQueue.transferPriority)
+				return;
+
+			if (waitQueue.holder != null)
+				waitQueue.holder.release(waitQueue);
+
+			waitQueue.holder = this;
+			held.add(waitQueue);
+
+			addTickets(waitQueue.getTotalTickets());
+		}
+
+		/**
+		 * Called when the associated thread gives up <tt>waitQueue</tt>, and
+		 * with it the tickets transferred through it.
+		 */
+		void release(LotteryQueue waitQueue) {
+			Lib.assertTrue(waitQueue.holder == this);
+
+			waitQueue.holder = null;
+			held.remove(waitQueue);
+
+			addTickets(-waitQueue.getTotalTickets());
+		}
+
+		TicketChain changeTickets(long delta) {
+			effectiveTickets += (int) delta;
+
+			if (waitingOn == null)
+				return null;
 
-			waitQueue.linkedthread = this;
+			waitingOn.changeTickets(this, (int) delta);
+
+			return waitingOn.transferPriority ? waitingOn.holder : null;
 		}
+
+		/** The thread with which this object is associated. */
+		protected KThread thread;// 这个对象关联的线程
+
+		/** The tickets of the associated thread. */
+		protected int priority;// 关联线程的优先级
+
+		/** The cached effective tickets of the associated thread. */
+		protected int effectiveTickets;// 有效优先级
+
+		/** The queue the associated thread waits on, or <tt>null</tt>. */
+		protected LotteryQueue waitingOn = null;
+
+		/** The queues that transfer tickets and are held by the thread. */
+		protected ArrayList<LotteryQueue> held = new ArrayList<LotteryQueue>();
+
+		/** The slot of the associated thread in <tt>waitingOn</tt>. */
+		private int slot = 0;
 	}
-}
\ No newline at end of file
+}
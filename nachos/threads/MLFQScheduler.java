@@ -0,0 +1,373 @@
+package nachos.threads;
+
+import nachos.machine.*;
+
+/**
+ * A multi-level feedback queue scheduler, which favours threads that use
+ * little processor time, such as threads that mostly wait for the console,
+ * over threads that compute for long stretches.
+ *
+ * <p>
+ * Every thread is at one of <tt>numLevels</tt> levels, and new threads start
+ * at the top level, level 0. A queue always chooses a thread from the highest
+ * level that has waiting threads, and among those the one that has waited
+ * longest. The scheduler charges a thread for the ticks it actually runs, and
+ * a thread that has run for the quantum of its level, <tt>Stats.TimerTicks</tt>
+ * at level 0 and twice as long at each level below, drops one level. A thread
+ * that has blocked, on a <tt>Semaphore</tt> such as the ones
+ * <tt>SynchConsole</tt> waits on, or on anything else, rises one level when it
+ * is woken up. Every <tt>agingTicks</tt> ticks, all threads go back to the top
+ * level, so that computing threads are not starved.
+ *
+ * <p>
+ * The timer only preempts the running thread when its quantum is over, or when
+ * a thread at a higher level has been woken up, so threads at low levels run
+ * for longer slices.
+ *
+ * <p>
+ * Threads have no priorities, so priority is not transferred.
+ */
+public class MLFQScheduler extends Scheduler {
+
+	/** The number of levels. */
+	public static final int numLevels = 4;
+
+	/** The number of ticks after which all threads go back to the top level. */
+	public static final int agingTicks = 50 * Stats.TimerTicks;
+
+	public MLFQScheduler() {
+	}
+
+	public ThreadQueue newThreadQueue(boolean transferPriority) {
+		return new MLFQueue();
+	}
+
+	/**
+	 * Charge the current thread, and preempt it if its quantum is over, or if
+	 * a thread at a higher level has been woken up.
+	 */
+	public boolean preemptCurrentThread() {
+		Lib.assertTrue(Machine.interrupt().disabled());
+
+		ThreadState state = chargeCurrentThread();
+
+		// 先取级别，老化后used已清零
+		int level = state.getLevel();
+
+		// 时间片已经用完，或者在下一次时钟中断之前就会用完
+		if (!state.expired && state.used + Stats.TimerTicks / 2 >= quantum(level))
+			state.demote();
+
+		if (state.expired) {
+			state.expired = false;
+			preemptPending = false;
+			return true;
+		}
+
+		if (preemptPending) {
+			preemptPending = false;
+			return true;
+		}
+
+		return false;
+	}
+
+	/**
+	 * Return the number of ticks a thread may run at the specified level
+	 * before it drops a level.
+	 */
+	static int quantum(int level) {
+		return Stats.TimerTicks << level;
+	}
+
+	/**
+	 * Charge the current thread for the ticks it has run since it was last
+	 * charged or chosen, and move it down a level once it has run for its
+	 * quantum. Then send all threads back to the top level if it is time to.
+	 */
+	private ThreadState chargeCurrentThread() {
+		long now = Machine.timer().getTime();
+
+		ThreadState state = getThreadState(KThread.currentThread());
+		state.charge(now - state.lastCharged);
+		state.lastCharged = now;
+
+		// 在计费之后老化，老化之前运行的时间不计入新的时间片
+		if (now >= nextAging)
+			age(now);
+
+		return state;
+	}
+
+	/**
+	 * Send all threads back to the top level.
+	 */
+	private void age(long now) {
+		epoch++;
+		nextAging = now + agingTicks;
+	}
+
+	/**
+	 * Return the scheduling state of the specified thread.
+	 *
+	 * @param thread
+	 *            the thread whose scheduling state to return.
+	 * @return the scheduling state of the specified thread.
+	 */
+	protected ThreadState getThreadState(KThread thread) {
+		if (thread.schedulingState == null)
+			thread.schedulingState = new ThreadState(thread);
+
+		return (ThreadState) thread.schedulingState;
+	}
+
+	/**
+	 * Test if this scheduler is working, by driving a queue directly with
+	 * interrupts disabled, so that no time passes: a thread drops a level
+	 * once it has been charged a whole quantum, rises a level when it is
+	 * woken up, is chosen after threads at higher levels, and goes back to
+	 * level 0 when all threads age, which the test makes happen at once. Must
+	 * be called while this is the kernel's scheduler.
+	 */
+	public static void selfTest() {
+		Lib.assertTrue(ThreadedKernel.scheduler instanceof MLFQScheduler);
+		MLFQScheduler scheduler = (MLFQScheduler) ThreadedKernel.scheduler;
+
+		boolean intStatus = Machine.interrupt().disable();
+
+		ThreadQueue queue = scheduler.newThreadQueue(false);
+		KThread a = new KThread().setName("MLFQ test a");
+		KThread b = new KThread().setName("MLFQ test b");
+		ThreadState stateA = scheduler.getThreadState(a);
+
+		// 用完一个完整的时间片才降级
+		stateA.charge(quantum(0) - 1);
+		Lib.assertTrue(stateA.getLevel() == 0, "MLFQ test thread dropped a level early");
+		stateA.charge(1);
+		Lib.assertTrue(stateA.getLevel() == 1, "MLFQ test thread did not drop a level after a quantum");
+		stateA.charge(quantum(1));
+		Lib.assertTrue(stateA.getLevel() == 2);
+
+		// 被唤醒时提升一级，并排在更高级别的线程之后
+		queue.waitForAccess(a);
+		Lib.assertTrue(stateA.getLevel() == 1, "MLFQ test thread was not boosted when woken up");
+		queue.waitForAccess(b);
+		Lib.assertTrue(queue.nextThread() == b && queue.nextThread() == a && queue.nextThread() == null,
+				"MLFQ chose a thread at a lower level first");
+
+		// 到达最低级别后，老化回到第0级
+		for (int level = stateA.getLevel(); level < numLevels - 1; level++)
+			stateA.charge(quantum(level));
+		Lib.assertTrue(stateA.getLevel() == numLevels - 1, "MLFQ test thread did not reach the bottom level");
+		queue.waitForAccess(a);
+		queue.waitForAccess(b);
+		scheduler.age(Machine.timer().getTime());
+		Lib.assertTrue(stateA.getLevel() == 0, "MLFQ test thread did not age back to level 0");
+		Lib.assertTrue(queue.nextThread() == b && queue.nextThread() == a && queue.nextThread() == null,
+				"MLFQ lost the order of waiting threads when they aged");
+
+		Machine.interrupt().restore(intStatus);
+	}
+
+	/**
+	 * A <tt>ThreadQueue</tt> with a FIFO list for every level.
+	 */
+	protected class MLFQueue extends ThreadQueue {
+
+		public void waitForAccess(KThread thread) {
+			Lib.assertTrue(Machine.interrupt().disabled());
+
+			ThreadState state = getThreadState(thread);
+
+			// 被唤醒的线程（而不是让出CPU或阻塞的当前线程）提升一级
+			if (thread != KThread.currentThread()) {
+				state.boost();
+				if (state.getLevel() < getThreadState(KThread.currentThread()).getLevel())
+					preemptPending = true;
+			}
+
+			add(state);
+		}
+
+		public KThread nextThread() {
+			Lib.assertTrue(Machine.interrupt().disabled());
+
+			chargeCurrentThread();
+			age();
+
+			if (levels == 0)
+				return null;
+
+			int level = Integer.numberOfTrailingZeros(levels);
+			ThreadState state = heads[level];
+
+			heads[level] = state.next;
+			if (heads[level] == null) {
+				tails[level] = null;
+				levels &= ~(1 << level);
+			}
+			state.next = null;
+
+			// 被选中的线程从现在开始计费
+			state.lastCharged = Machine.timer().getTime();
+			state.expired = false;
+
+			return state.thread;
+		}
+
+		/**
+		 * Nothing to do: threads have no priority to transfer.
+		 */
+		public void acquire(KThread thread) {
+			Lib.assertTrue(Machine.interrupt().disabled());
+		}
+
+		public void print() {
+			Lib.assertTrue(Machine.interrupt().disabled());
+
+			for (int level = 0; level < numLevels; level++) {
+				for (ThreadState state = heads[level]; state != null; state = state.next)
+					System.out.print(" " + state.thread + "(" + level + ")");
+			}
+			System.out.println();
+		}
+
+		/**
+		 * Add a thread to the end of the list for its level.
+		 */
+		private void add(ThreadState state) {
+			age();
+
+			int level = state.getLevel();
+
+			state.next = null;
+			if (tails[level] == null)
+				heads[level] = state;
+			else
+				tails[level].next = state;
+			tails[level] = state;
+
+			levels |= 1 << level;
+		}
+
+		/**
+		 * If all threads have gone back to the top level since this queue was
+		 * last used, move the waiting threads to the top list, keeping them in
+		 * the order in which they would have been chosen.
+		 */
+		private void age() {
+			if (queueEpoch == epoch)
+				return;
+			queueEpoch = epoch;
+
+			for (int level = 1; level < numLevels; level++) {
+				if (heads[level] == null)
+					continue;
+
+				if (tails[0] == null)
+					heads[0] = heads[level];
+				else
+					tails[0].next = heads[level];
+				tails[0] = tails[level];
+
+				heads[level] = tails[level] = null;
+			}
+
+			levels = heads[0] == null ? 0 : 1;
+		}
+
+		/** The first and last waiting thread of each level. */
+		private ThreadState[] heads = new ThreadState[numLevels];
+		private ThreadState[] tails = new ThreadState[numLevels];
+		/** Bit <i>l</i> is set if a thread at level <i>l</i> waits. */
+		private int levels = 0;
+		/** The aging epoch this queue has caught up with. */
+		private int queueEpoch = epoch;
+	}
+
+	/**
+	 * The scheduling state of a thread.
+	 *
+	 * @see nachos.threads.KThread#schedulingState
+	 */
+	protected class ThreadState {
+
+		/**
+		 * Allocate a new <tt>ThreadState</tt> object and associate it with the
+		 * specified thread.
+		 *
+		 * @param thread
+		 *            the thread this state belongs to.
+		 */
+		public ThreadState(KThread thread) {
+			this.thread = thread;
+		}
+
+		/**
+		 * Return the level of the thread, which is 0 if all threads have gone
+		 * back to the top level since it was last set.
+		 */
+		int getLevel() {
+			if (stateEpoch != epoch) {
+				stateEpoch = epoch;
+				level = 0;
+				used = 0;
+			}
+			return level;
+		}
+
+		/**
+		 * Charge the thread for running <i>ticks</i> ticks, and move it down a
+		 * level once it has run for its quantum.
+		 */
+		void charge(long ticks) {
+			int level = getLevel();
+			used += ticks;
+
+			if (used >= quantum(level))
+				demote();
+		}
+
+		/**
+		 * Move the thread down a level, with a new quantum, and have it
+		 * preempted at the next timer interrupt.
+		 */
+		void demote() {
+			level = Math.min(getLevel() + 1, numLevels - 1);
+			used = 0;
+			expired = true;
+		}
+
+		/**
+		 * Move the thread up a level, with a new quantum.
+		 */
+		void boost() {
+			if (getLevel() > 0) {
+				level--;
+				used = 0;
+			}
+		}
+
+		/** The thread with which this object is associated. */
+		protected KThread thread;
+
+		private int level = 0;
+		/** The ticks the thread has run at its level. */
+		private long used = 0;
+		/** The time up to which the thread has been charged. */
+		private long lastCharged = 0;
+		/** Set when the thread has used up a quantum since it was chosen. */
+		private boolean expired = false;
+		private int stateEpoch = epoch;
+
+		/** The next thread in the list the thread waits in. */
+		private ThreadState next = null;
+	}
+
+	/** The number of times all threads have gone back to the top level. */
+	private int epoch = 0;
+	private long nextAging = agingTicks;
+
+	/** Set when a thread is woken up at a higher level than the current one. */
+	private boolean preemptPending = false;
+}
@@ -1,8 +1,36 @@
 package nachos.threads;
 
 import nachos.machine.*;
-import java.util.LinkedList;
-
+import java.util.ArrayList;
+
+/**
+ * A scheduler that chooses threads based on their priorities.
+ *
+ * <p>
+ * A priority scheduler associates a priority with each thread. The next thread
+ * to be dequeued is always a thread with priority no less than any other
+ * waiting thread's priority. Like a round-robin scheduler, the thread that is
+ * dequeued is, among all the threads of the same (highest) priority, the
+ * thread that has been waiting longest at that priority.
+ *
+ * <p>
+ * Essentially, a priority scheduler gives access in a round-robin fassion to
+ * all the highest-priority threads, and ignores all other threads. This has
+ * the potential to starve a thread if there's always a thread waiting with
+ * higher priority.
+ *
+ * <p>
+ * A priority scheduler must partially solve the priority inversion problem;
+ * in particular, priority must be donated through locks, and through joins.
+ *
+ * <p>
+ * Each queue keeps a FIFO list of waiting threads for every priority, and a
+ * bitmap of the priorities that have waiting threads, so that adding,
+ * removing and choosing a thread take constant time however many threads are
+ * waiting. Every thread caches its effective priority, and a change is passed
+ * along the chain of queues and holders it affects, stopping as soon as an
+ * effective priority stays the same.
+ */
 public class PriorityScheduler extends Scheduler {
 
 	public PriorityScheduler() {
@@ -38,8 +66,10 @@ public class PriorityScheduler extends Scheduler {
 		KThread thread = KThread.currentThread();
 
 		int priority = getPriority(thread);
-		if (priority == priorityMaximum)
+		if (priority == priorityMaximum) {
+			Machine.interrupt().restore(intStatus);
 			return false;
+		}
 
 		setPriority(thread, priority + 1);
 
@@ -53,8 +83,10 @@ public class PriorityScheduler extends Scheduler {
 		KThread thread = KThread.currentThread();
 
 		int priority = getPriority(thread);
-		if (priority == priorityMinimum)
+		if (priority == priorityMinimum) {
+			Machine.interrupt().restore(intStatus);
 			return false;
+		}
 
 		setPriority(thread, priority - 1);
 
@@ -90,8 +122,7 @@ public class PriorityScheduler extends Scheduler {
 	 */
 	protected class PriorityQueue extends ThreadQueue {// 优先级队列类，继承自线程队列
 
-		PriorityQueue(boolean transferPriority) {// 自动调用父类无参数构造方法，创建一个线程队列
-
+		PriorityQueue(boolean transferPriority) {
 			this.transferPriority = transferPriority;
 		}
 
@@ -99,39 +130,33 @@ public class PriorityScheduler extends Scheduler {
 			Lib.assertTrue(Machine.interrupt().disabled());
 
 			getThreadState(thread).waitForAccess(this);
-
 		}
 
 		public void acquire(KThread thread) {
 			Lib.assertTrue(Machine.interrupt().disabled());
 
-			if (!thread.getName().equals("main")) {
-				getThreadState(thread).acquire(this);
-			}
+			getThreadState(thread).acquire(this);
 		}
 
 		public KThread nextThread() {
-
 			Lib.assertTrue(Machine.interrupt().disabled());
-			// implement me
 
-			int max = -1;
-			index = 0;
-			ThreadState state = null, temp = null;
-			while ((temp = pickNextThread()) != null) {
-				if (temp.getEffectivePriority() > max) {
-					state = temp;
-					max = temp.getEffectivePriority();
-				}
+			ThreadState state = pickNextThread();
 
-			}
 			if (state == null) {
+				// 没有等待的线程，持有者释放队列
+				if (holder != null)
+					holder.release(this);
 				return null;
-			} else {
-
-				return waitQueue.remove(waitQueue.indexOf(state)).thread;
 			}
 
+			remove(state);
+			state.waitingOn = null;
+
+			// 被选中的线程获得队列
+			state.acquire(this);
+
+			return state.thread;
 		}
 
 		/**
@@ -141,18 +166,65 @@ public class PriorityScheduler extends Scheduler {
 		 * @return the next thread that <tt>nextThread()</tt> would return.
 		 */
 		protected ThreadState pickNextThread() {
-			// implement me
-			if (index < waitQueue.size()) {
-				index++;
-				return waitQueue.get(index - 1);
-			}
+			if (levels == 0)
+				return null;
 
-			return null;
+			return heads[getMaxPriority()];
 		}
 
 		public void print() {
 			Lib.assertTrue(Machine.interrupt().disabled());
-			// implement me (if you want)
+
+			for (int priority = priorityMaximum; priority >= priorityMinimum; priority--) {
+				for (ThreadState state = heads[priority]; state != null; state = state.next)
+					System.out.print(" " + state.thread + "(" + priority + ")");
+			}
+			System.out.println();
+		}
+
+		/**
+		 * Return the highest effective priority of a waiting thread, or -1 if
+		 * no thread is waiting.
+		 */
+		int getMaxPriority() {
+			return 31 - Integer.numberOfLeadingZeros(levels);
+		}
+
+		/**
+		 * Add a thread to the end of the list for its effective priority.
+		 */
+		void add(ThreadState state) {
+			int priority = state.effectivePriority;
+
+			state.next = null;
+			state.prev = tails[priority];
+			if (tails[priority] == null)
+				heads[priority] = state;
+			else
+				tails[priority].next = state;
+			tails[priority] = state;
+
+			levels |= 1 << priority;
+		}
+
+		/**
+		 * Remove a thread from the list for its effective priority.
+		 */
+		void remove(ThreadState state) {
+			int priority = state.effectivePriority;
+
+			if (state.prev == null)
+				heads[priority] = state.next;
+			else
+				state.prev.next = state.next;
+			if (state.next == null)
+				tails[priority] = state.prev;
+			else
+				state.next.prev = state.prev;
+			state.prev = state.next = null;
+
+			if (heads[priority] == null)
+				levels &= ~(1 << priority);
 		}
 
 		/**
@@ -160,74 +232,174 @@ public class PriorityScheduler extends Scheduler {
 		 * threads to the owning thread.
 		 */
 		public boolean transferPriority;
-		public LinkedList<ThreadState> waitQueue = new LinkedList<ThreadState>();
-		public ThreadState linkedthread = null;
-		private int index;
+
+		/** The thread that last acquired this queue, if it transfers priority. */
+		ThreadState holder = null;
+
+		/** The first and last waiting thread of each priority. */
+		private ThreadState[] heads = new ThreadState[priorityMaximum + 1];
+		private ThreadState[] tails = new ThreadState[priorityMaximum + 1];
+		/** Bit <i>p</i> is set if a thread with effective priority <i>p</i> waits. */
+		private int levels = 0;
 	}
 
+	/**
+	 * The scheduling state of a thread. This should include the thread's
+	 * priority, its effective priority, any objects it owns, and the queue
+	 * it's waiting for, if any.
+	 *
+	 * @see nachos.threads.KThread#schedulingState
+	 */
 	protected class ThreadState {
 
+		/**
+		 * Allocate a new <tt>ThreadState</tt> object and associate it with the
+		 * specified thread.
+		 *
+		 * @param thread
+		 *            the thread this state belongs to.
+		 */
 		public ThreadState(KThread thread) {
 			this.thread = thread;
-			setPriority(priorityDefault);
-			waitQueue = new PriorityQueue(true);
+
+			priority = effectivePriority = priorityDefault;
 		}
 
+		/**
+		 * Return the priority of the associated thread.
+		 *
+		 * @return the priority of the associated thread.
+		 */
 		public int getPriority() {
 			return priority;
 		}
 
-		public int getEffectivePriority() {// 得到有效优先级
-			// implement me
-
-			effectivepriority = -1;
-
-			for (int i = 0; i < waitQueue.waitQueue.size(); i++) {
-				if (waitQueue.waitQueue.get(i).getEffectivePriority() > effectivepriority)
-					effectivepriority = waitQueue.waitQueue.get(i).getEffectivePriority();
-			}
-			if (effectivepriority > priority)
-				setPriority(effectivepriority);
-
-			return priority;
-
+		/**
+		 * Return the effective priority of the associated thread: the highest
+		 * of its own priority and the effective priorities of the threads
+		 * waiting for the queues it holds.
+		 *
+		 * @return the effective priority of the associated thread.
+		 */
+		public int getEffectivePriority() {
+			return effectivePriority;
 		}
 
-		public void setPriority(int priority) {// 优先级传递
+		/**
+		 * Set the priority of the associated thread to the specified value.
+		 *
+		 * @param priority
+		 *            the new priority.
+		 */
+		public void setPriority(int priority) {
 			if (this.priority == priority)
 				return;
 
 			this.priority = priority;
 
-			// implement me
+			updateEffectivePriority();
 		}
 
+		/**
+		 * Called when <tt>waitForAccess(thread)</tt> (where <tt>thread</tt> is
+		 * the associated thread) is invoked on the specified priority queue.
+		 * The associated thread is therefore waiting for access to the
+		 * resource guarded by <tt>waitQueue</tt>, and donates its priority to
+		 * the resource's holder if the queue transfers priority.
+		 *
+		 * @param waitQueue
+		 *            the queue that the associated thread is now waiting on.
+		 */
 		public void waitForAccess(PriorityQueue waitQueue) {// 将此线程状态存入传入的等待队列
-			// implement me
-
-			waitQueue.waitQueue.add(this);
+			Lib.assertTrue(waitingOn == null);
 
-			if (waitQueue.linkedthread != null && waitQueue.linkedthread != this) {
-				waitQueue.linkedthread.waitQueue.waitForAccess(this.thread);
-			}
+			waitingOn = waitQueue;
+			waitQueue.add(this);
 
+			// 优先级捐赠给队列的持有者
+			if (waitQueue.transferPriority && waitQueue.holder != null
+					&& effectivePriority > waitQueue.holder.effectivePriority)
+				waitQueue.holder.updateEffectivePriority();
 		}
 
+		/**
+		 * Called when the associated thread has acquired access to whatever is
+		 * guarded by <tt>waitQueue</tt>. This can occur either as a result of
+		 * <tt>acquire(thread)</tt> being invoked on <tt>waitQueue</tt> (where
+		 * <tt>thread</tt> is the associated thread), or as a result of
+		 * <tt>nextThread()</tt> being invoked on <tt>waitQueue</tt>.
+		 *
+		 * @param waitQueue
+		 *            the queue that the associated thread has acquired.
+		 */
 		public void acquire(PriorityQueue waitQueue) {// 相当于一个线程持有的队列锁
-			// implement me
+			if (!waitQueue.transferPriority)
+				return;
 
-			Lib.assertTrue(waitQueue.waitQueue.isEmpty());
+			if (waitQueue.holder != null)
+				waitQueue.holder.release(waitQueue);
 
-			waitQueue.linkedthread = this;
+			waitQueue.holder = this;
+			held.add(waitQueue);
+
+			updateEffectivePriority();
+		}
+
+		/**
+		 * Called when the associated thread gives up the resource guarded by
+		 * <tt>waitQueue</tt>, and with it the priority donated through it.
+		 */
+		void release(PriorityQueue waitQueue) {
+			Lib.assertTrue(waitQueue.holder == this);
+
+			waitQueue.holder = null;
+			held.remove(waitQueue);
+
+			updateEffectivePriority();
 		}
 
+		/**
+		 * Recompute the effective priority from the priority and the queues
+		 * held. If it changed, move the thread to its new list in the queue
+		 * it waits on, and pass the change on to that queue's holder.
+		 */
+		void updateEffectivePriority() {
+			int effective = priority;
+			for (int i = 0; i < held.size(); i++)
+				effective = Math.max(effective, held.get(i).getMaxPriority());
+
+			if (effective == effectivePriority)
+				return;
+
+			if (waitingOn == null) {
+				effectivePriority = effective;
+				return;
+			}
+
+			waitingOn.remove(this);
+			effectivePriority = effective;
+			waitingOn.add(this);
+
+			if (waitingOn.transferPriority && waitingOn.holder != null)
+				waitingOn.holder.updateEffectivePriority();
+		}
+
+		/** The thread with which this object is associated. */
 		protected KThread thread;// 这个对象关联的线程
 
+		/** The priority of the associated thread. */
 		protected int priority;// 关联线程的优先级
 
-		protected int effectivepriority;// 有效优先级
+		/** The cached effective priority of the associated thread. */
+		protected int effectivePriority;// 有效优先级
+
+		/** The queue the associated thread waits on, or <tt>null</tt>. */
+		protected PriorityQueue waitingOn = null;
 
-		protected PriorityQueue waitQueue;
+		/** The queues that transfer priority and are held by the thread. */
+		protected ArrayList<PriorityQueue> held = new ArrayList<PriorityQueue>();
 
+		/** The neighbours of the thread in the list it waits in. */
+		private ThreadState prev = null, next = null;
 	}
-}
\ No newline at end of file
+}
@@ -154,4 +154,16 @@ public abstract class Scheduler {
     public boolean decreasePriority() {
 	return false;
     }
+
+    /**
+     * Called by the alarm on every timer interrupt, with interrupts disabled,
+     * to ask whether the current thread should yield. A scheduler that gives
+     * threads time slices longer than the timer interval returns
+     * <tt>false</tt> until the current thread's slice is over.
+     *
+     * @return	<tt>true</tt> if the current thread should be preempted.
+     */
+    public boolean preemptCurrentThread() {
+	return true;
+    }
 }
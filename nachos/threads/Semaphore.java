@@ -41,6 +41,7 @@ public class Semaphore {
 	 */
 	public void P() {
 		boolean intStatus = Machine.interrupt().disable();
+		Machine.interrupt().charge(CostModel.lockOperation);
 
 		if (value == 0) {
 			waitQueue.waitForAccess(KThread.currentThread());
@@ -59,6 +60,7 @@ public class Semaphore {
 	 */
 	public void V() {
 		boolean intStatus = Machine.interrupt().disable();
+		Machine.interrupt().charge(CostModel.lockOperation);
 
 		KThread thread = waitQueue.nextThread();
 		if (thread != null) {
@@ -0,0 +1,558 @@
+package nachos.threads;
+
+import nachos.machine.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+
+/**
+ * A scheduler that gives threads deterministic, proportional shares.
+ *
+ * <p>
+ * A stride scheduler associates a number of tickets with each thread, set
+ * through the usual priority calls. Every thread also has a pass, a virtual
+ * time that advances by the thread's stride, inversely proportional to its
+ * tickets, each time the thread is chosen. A queue always chooses the thread
+ * whose pass will be lowest after it is chosen, and among those the one that
+ * has waited longest. Threads that keep competing for the same queue are
+ * therefore chosen in exact proportion to their tickets, without the variance
+ * of a lottery.
+ *
+ * <p>
+ * A thread that starts to wait on a queue has its pass raised to the pass of
+ * the queue, the pass of the last thread the queue chose, so that time spent
+ * away from the queue is not saved up as credit. As in the lottery scheduler,
+ * threads waiting on a queue that transfers priority add their tickets to the
+ * tickets of the thread holding it.
+ *
+ * <p>
+ * Passes are kept per queue: the pass a thread has in a lock or semaphore
+ * queue does not affect its place in the ready queue, so a thread that often
+ * waits on locks still gets its share of the processor.
+ *
+ * <p>
+ * Each queue is a binary heap, so choosing a thread, adding one, and changing
+ * the tickets of a waiting thread take time logarithmic in the number of
+ * waiting threads.
+ */
+public class StrideScheduler extends Scheduler {
+
+	/**
+	 * The default priority for a new thread. Do not change this value.
+	 */
+	public static final int priorityDefault = 1; // 新线程默认彩票数
+
+	public static final int priorityMinimum = 1; // 线程最少有1张彩票
+
+	public static final int priorityMaximum = 1 << 20; // 线程最多的彩票数
+
+	/**
+	 * The stride of a thread holding a single ticket.
+	 */
+	private static final long stride1 = 1L << 30;
+
+	public StrideScheduler() {
+	}
+
+	public ThreadQueue newThreadQueue(boolean transferPriority) {// 分配一个线程队列
+		return new StrideQueue(transferPriority);
+	}
+
+	public int getPriority(KThread thread) {// 得到线程的彩票数
+		Lib.assertTrue(Machine.interrupt().disabled());
+
+		return getThreadState(thread).getPriority();
+	}
+
+	public int getEffectivePriority(KThread thread) {// 得到线程的有效彩票数
+		Lib.assertTrue(Machine.interrupt().disabled());
+
+		return getThreadState(thread).getEffectivePriority();
+	}
+
+	public void setPriority(KThread thread, int priority) {// 设置线程彩票数
+		Lib.assertTrue(Machine.interrupt().disabled());
+
+		Lib.assertTrue(priority >= priorityMinimum && priority <= priorityMaximum);
+
+		getThreadState(thread).setPriority(priority);
+	}
+
+	public boolean increasePriority() {// 增加运行线程的彩票数
+		boolean intStatus = Machine.interrupt().disable();
+
+		KThread thread = KThread.currentThread();
+
+		int priority = getPriority(thread);
+		if (priority == priorityMaximum) {
+			Machine.interrupt().restore(intStatus);
+			return false;
+		}
+
+		setPriority(thread, priority + 1);
+
+		Machine.interrupt().restore(intStatus);
+		return true;
+	}
+
+	public boolean decreasePriority() {// 减少运行线程的彩票数
+		boolean intStatus = Machine.interrupt().disable();
+
+		KThread thread = KThread.currentThread();
+
+		int priority = getPriority(thread);
+		if (priority == priorityMinimum) {
+			Machine.interrupt().restore(intStatus);
+			return false;
+		}
+
+		setPriority(thread, priority - 1);
+
+		Machine.interrupt().restore(intStatus);
+		return true;
+	}
+
+	/**
+	 * Return the scheduling state of the specified thread.
+	 *
+	 * @param thread
+	 *            the thread whose scheduling state to return.
+	 * @return the scheduling state of the specified thread.
+	 */
+	protected ThreadState getThreadState(KThread thread) {
+		if (thread.schedulingState == null)
+			thread.schedulingState = new ThreadState(thread);
+
+		return (ThreadState) thread.schedulingState;
+	}
+
+	/**
+	 * Test if this scheduler is working: threads with 1, 2 and 4 tickets that
+	 * keep competing for a queue are chosen exactly 1000, 2000 and 4000 times
+	 * in 7000 picks, also when one of them passes through a lock's queue
+	 * every time it is chosen, and a thread that starts waiting late gets no credit for the time
+	 * it was away. Must be called while this is the kernel's scheduler.
+	 */
+	public static void selfTest() {
+		Lib.assertTrue(ThreadedKernel.scheduler instanceof StrideScheduler);
+		Scheduler scheduler = ThreadedKernel.scheduler;
+
+		boolean intStatus = Machine.interrupt().disable();
+
+		// the pass in a lock's queue must not push the threads back in the
+		// ready queue
+		ThreadQueue queue = testShares(scheduler, scheduler.newThreadQueue(true));
+		while (queue.nextThread() != null)
+			;
+
+		queue = testShares(scheduler, null);
+
+		// a newcomer starts at the pass of the queue, so it does not win
+		// every pick until it has caught up
+		KThread late = new KThread().setName("stride test late");
+		scheduler.setPriority(late, 4);
+		queue.waitForAccess(late);
+
+		int latePicks = 0;
+		for (int pick = 0; pick < 11; pick++) {
+			KThread thread = queue.nextThread();
+			if (thread == late)
+				latePicks++;
+			queue.waitForAccess(thread);
+		}
+		Lib.assertTrue(latePicks == 4, "late stride test thread was chosen " + latePicks + " times in 11");
+
+		while (queue.nextThread() != null)
+			;
+
+		Machine.interrupt().restore(intStatus);
+	}
+
+	/**
+	 * Check that threads with 1, 2 and 4 tickets are chosen exactly 1000, 2000
+	 * and 4000 times in 7000 picks from a queue. If <i>lockQueue</i> is not
+	 * <tt>null</tt>, the thread with 1 ticket also acquires and releases it,
+	 * as a <tt>Lock</tt> would, every time it is chosen, before it waits on
+	 * the queue again.
+	 *
+	 * @return the queue, with the threads still waiting on it.
+	 */
+	private static ThreadQueue testShares(Scheduler scheduler, ThreadQueue lockQueue) {
+		ThreadQueue queue = scheduler.newThreadQueue(false);
+		KThread[] threads = new KThread[3];
+		int[] picks = new int[3];
+
+		for (int i = 0; i < 3; i++) {
+			threads[i] = new KThread().setName("stride test " + i);
+			scheduler.setPriority(threads[i], 1 << i);
+			queue.waitForAccess(threads[i]);
+		}
+
+		for (int pick = 0; pick < 7000; pick++) {
+			KThread thread = queue.nextThread();
+			for (int i = 0; i < 3; i++) {
+				if (thread == threads[i])
+					picks[i]++;
+			}
+
+			if (lockQueue != null && thread == threads[0]) {
+				lockQueue.waitForAccess(thread);
+				Lib.assertTrue(lockQueue.nextThread() == thread);
+				Lib.assertTrue(lockQueue.nextThread() == null);
+			}
+
+			queue.waitForAccess(thread);
+		}
+
+		for (int i = 0; i < 3; i++)
+			Lib.assertTrue(picks[i] == 1000 << i, "stride test " + i + " was chosen " + picks[i] + " times");
+
+		return queue;
+	}
+
+	/**
+	 * A <tt>ThreadQueue</tt> that chooses the thread with the lowest pass.
+	 */
+	protected class StrideQueue extends ThreadQueue {
+
+		StrideQueue(boolean transferPriority) {
+			this.transferPriority = transferPriority;
+		}
+
+		public void waitForAccess(KThread thread) {// 传入等待队列的线程
+			Lib.assertTrue(Machine.interrupt().disabled());
+
+			getThreadState(thread).waitForAccess(this);
+		}
+
+		public void acquire(KThread thread) {
+			Lib.assertTrue(Machine.interrupt().disabled());
+
+			getThreadState(thread).acquire(this);
+		}
+
+		public KThread nextThread() {
+			Lib.assertTrue(Machine.interrupt().disabled());
+
+			ThreadState state = pickNextThread();
+
+			if (state == null) {
+				// 没有等待的线程，持有者释放队列
+				if (holder != null)
+					holder.release(this);
+				return null;
+			}
+
+			remove(state);
+			state.waitingOn = null;
+
+			// 被选中的线程在这个队列中前进一个步长，回来时从这里继续
+			pass = state.pass;
+			state.pass = state.getFinish();
+			away.put(state, state.pass);
+			if (away.size() > forgetSize)
+				forget();
+
+			if (transferPriority && holder != null)
+				holder.addTickets(-state.effectiveTickets);
+
+			state.acquire(this);
+
+			return state.thread;
+		}
+
+		/**
+		 * Return the next thread that <tt>nextThread()</tt> would return,
+		 * without modifying the state of this queue.
+		 *
+		 * @return the next thread that <tt>nextThread()</tt> would return.
+		 */
+		protected ThreadState pickNextThread() {
+			return size == 0 ? null : heap[0];
+		}
+
+		public void print() {
+			Lib.assertTrue(Machine.interrupt().disabled());
+
+			for (int i = 0; i < size; i++)
+				System.out.print(" " + heap[i].thread + "(" + heap[i].effectiveTickets + ", " + heap[i].pass + ")");
+			System.out.println();
+		}
+
+		/**
+		 * Return the total number of tickets held by the waiting threads.
+		 */
+		long getTotalTickets() {
+			return totalTickets;
+		}
+
+		/**
+		 * Add a waiting thread to the heap, at the pass it had when this
+		 * queue last chose it, but no earlier than the pass of the queue.
+		 */
+		void add(ThreadState state) {
+			Long awayPass = away.remove(state);
+			state.pass = awayPass == null ? pass : Math.max(awayPass, pass);
+			state.sequence = nextSequence++;
+
+			if (size == heap.length) {
+				ThreadState[] newHeap = new ThreadState[heap.length * 2];
+				System.arraycopy(heap, 0, newHeap, 0, size);
+				heap = newHeap;
+			}
+
+			heap[size] = state;
+			state.index = size++;
+			siftUp(state.index);
+
+			totalTickets += state.effectiveTickets;
+		}
+
+		/**
+		 * Take a waiting thread out of the heap.
+		 */
+		void remove(ThreadState state) {
+			int index = state.index;
+
+			size--;
+			if (index != size) {
+				heap[index] = heap[size];
+				heap[index].index = index;
+				siftDown(siftUp(index));
+			}
+			heap[size] = null;
+			state.index = -1;
+
+			totalTickets -= state.effectiveTickets;
+		}
+
+		/**
+		 * Forget the passes of the threads that are away and no longer ahead
+		 * of the pass of this queue, including threads that have finished.
+		 */
+		private void forget() {
+			for (Iterator<Long> i = away.values().iterator(); i.hasNext();) {
+				if (i.next() <= pass)
+					i.remove();
+			}
+			forgetSize = 2 * away.size() + 64;
+		}
+
+		/**
+		 * Change the tickets of a waiting thread by <i>delta</i>, and move it
+		 * to its new place in the heap.
+		 */
+		void changeTickets(ThreadState state, long delta) {
+			state.effectiveTickets += delta;
+			totalTickets += delta;
+
+			siftDown(siftUp(state.index));
+		}
+
+		private int siftUp(int index) {
+			ThreadState state = heap[index];
+
+			while (index > 0) {
+				int parent = (index - 1) / 2;
+				if (!before(state, heap[parent]))
+					break;
+				heap[index] = heap[parent];
+				heap[index].index = index;
+				index = parent;
+			}
+
+			heap[index] = state;
+			state.index = index;
+			return index;
+		}
+
+		private void siftDown(int index) {
+			ThreadState state = heap[index];
+
+			while (true) {
+				int child = 2 * index + 1;
+				if (child >= size)
+					break;
+				if (child + 1 < size && before(heap[child + 1], heap[child]))
+					child++;
+				if (!before(heap[child], state))
+					break;
+				heap[index] = heap[child];
+				heap[index].index = index;
+				index = child;
+			}
+
+			heap[index] = state;
+			state.index = index;
+		}
+
+		/**
+		 * Return <tt>true</tt> if <i>a</i> should be chosen before <i>b</i>.
+		 */
+		private boolean before(ThreadState a, ThreadState b) {
+			long finishA = a.getFinish(), finishB = b.getFinish();
+			return finishA < finishB || (finishA == finishB && a.sequence < b.sequence);
+		}
+
+		/**
+		 * <tt>true</tt> if this queue should transfer tickets from waiting
+		 * threads to the owning thread.
+		 */
+		public boolean transferPriority;
+
+		/** The thread that last acquired this queue, if it transfers tickets. */
+		ThreadState holder = null;
+
+		/** The pass of the thread this queue chose last. */
+		private long pass = 0;
+
+		/**
+		 * The passes of the threads this queue has chosen that have not
+		 * started to wait on it again, if they may be ahead of its pass.
+		 */
+		private HashMap<ThreadState, Long> away = new HashMap<ThreadState, Long>();
+		/** The number of threads away at which to forget passes again. */
+		private int forgetSize = 64;
+
+		private ThreadState[] heap = new ThreadState[4];
+		private int size = 0;
+		private long totalTickets = 0;
+		private long nextSequence = 0;
+	}
+
+	/**
+	 * The scheduling state of a thread: its tickets, its effective tickets, its
+	 * pass, the queues it holds, and the queue it waits on, if any.
+	 *
+	 * @see nachos.threads.KThread#schedulingState
+	 */
+	protected class ThreadState extends TicketChain {
+
+		/**
+		 * Allocate a new <tt>ThreadState</tt> object and associate it with the
+		 * specified thread.
+		 *
+		 * @param thread
+		 *            the thread this state belongs to.
+		 */
+		public ThreadState(KThread thread) {
+			this.thread = thread;
+
+			priority = priorityDefault;
+			effectiveTickets = priorityDefault;
+		}
+
+		public int getPriority() {
+			return priority;
+		}
+
+		/**
+		 * Return the effective tickets of the associated thread: its own
+		 * tickets plus the effective tickets of the threads waiting for the
+		 * queues it holds.
+		 */
+		public int getEffectivePriority() {
+			return (int) Math.min(effectiveTickets, Integer.MAX_VALUE);
+		}
+
+		public void setPriority(int priority) {
+			if (this.priority == priority)
+				return;
+
+			int delta = priority - this.priority;
+			this.priority = priority;
+
+			addTickets(delta);
+		}
+
+		/**
+		 * Return the pass the associated thread will have after it is chosen.
+		 */
+		long getFinish() {
+			return pass + Math.max(stride1 / effectiveTickets, 1);
+		}
+
+		/**
+		 * Called when the associated thread starts waiting on
+		 * <tt>waitQueue</tt>; its tickets go to the queue's holder if the
+		 * queue transfers priority.
+		 */
+		public void waitForAccess(StrideQueue waitQueue) {
+			Lib.assertTrue(waitingOn == null);
+
+			waitingOn = waitQueue;
+			waitQueue.add(this);
+
+			if (waitQueue.transferPriority && waitQueue.holder != null)
+				waitQueue.holder.addTickets(effectiveTickets);
+		}
+
+		/**
+		 * Called when the associated thread acquires <tt>waitQueue</tt>,
+		 * either through <tt>acquire()</tt> or by being chosen by it.
+		 */
+		public void acquire(StrideQueue waitQueue) {
+			if (!waitQueue.transferPriority)
+				return;
+
+			if (waitQueue.holder != null)
+				waitQueue.holder.release(waitQueue);
+
+			waitQueue.holder = this;
+			held.add(waitQueue);
+
+			addTickets(waitQueue.getTotalTickets());
+		}
+
+		/**
+		 * Called when the associated thread gives up <tt>waitQueue</tt>, and
+		 * with it the tickets transferred through it.
+		 */
+		void release(StrideQueue waitQueue) {
+			Lib.assertTrue(waitQueue.holder == this);
+
+			waitQueue.holder = null;
+			held.remove(waitQueue);
+
+			addTickets(-waitQueue.getTotalTickets());
+		}
+
+		TicketChain changeTickets(long delta) {
+			if (waitingOn == null) {
+				effectiveTickets += delta;
+				return null;
+			}
+
+			waitingOn.changeTickets(this, delta);
+
+			return waitingOn.transferPriority ? waitingOn.holder : null;
+		}
+
+		/** The thread with which this object is associated. */
+		protected KThread thread;
+
+		/** The tickets of the associated thread. */
+		protected int priority;
+
+		/** The cached effective tickets of the associated thread. */
+		protected long effectiveTickets;
+
+		/**
+		 * The virtual time up to which the thread has been served by the
+		 * queue it waits on.
+		 */
+		protected long pass = 0;
+
+		/** The queue the associated thread waits on, or <tt>null</tt>. */
+		protected StrideQueue waitingOn = null;
+
+		/** The queues that transfer priority and are held by the thread. */
+		protected ArrayList<StrideQueue> held = new ArrayList<StrideQueue>();
+
+		/** The place of the thread in the heap of <tt>waitingOn</tt>. */
+		private int index = -1;
+
+		/** When the thread started to wait, to break ties first come first served. */
+		private long sequence;
+	}
+}
@@ -22,6 +22,9 @@ public class ThreadedKernel extends Kernel {
 	private static Communicator dummy5 = null;
 	private static Rider dummy6 = null;
 	private static ElevatorController dummy7 = null;
+	private static StrideScheduler dummy8 = null;
+	private static MLFQScheduler dummy9 = null;
+	private static EDFScheduler dummy10 = null;
 	
 	/**
 	 * Allocate a new multi-threaded kernel.
@@ -60,14 +63,26 @@ public class ThreadedKernel extends Kernel {
 
 	/**
 	 * Test this kernel. Test the <tt>KThread</tt>, <tt>Semaphore</tt>,
-	 * <tt>SynchList</tt>, and <tt>ElevatorBank</tt> classes. Note that the
-	 * autograder never calls this method, so it is safe to put additional tests
-	 * here.
+	 * <tt>SynchList</tt>, <tt>Communicator</tt>, and <tt>ElevatorBank</tt>
+	 * classes, the pending interrupt queue of the <tt>Interrupt</tt> class,
+	 * and the scheduler, if it has a self test. Note that the autograder never
+	 * calls this method, so it is safe to put additional tests here.
 	 */
 	public void selfTest() {
 		KThread.selfTest();
 		Semaphore.selfTest();
 		SynchList.selfTest();
+		Communicator.selfTest();
+		Interrupt.selfTest();
+		if (scheduler instanceof StrideScheduler) {
+			StrideScheduler.selfTest();
+		}
+		if (scheduler instanceof MLFQScheduler) {
+			MLFQScheduler.selfTest();
+		}
+		if (scheduler instanceof EDFScheduler) {
+			EDFScheduler.selfTest();
+		}
 		if (Machine.bank() != null) {
 			ElevatorBank.selfTest();
 		}
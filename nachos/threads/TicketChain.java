@@ -0,0 +1,40 @@
+package nachos.threads;
+
+/**
+ * The part of the scheduling state of a thread that passes tickets on, for the
+ * schedulers in which the threads waiting on a queue add their tickets to the
+ * tickets of the thread holding it.
+ */
+abstract class TicketChain {
+
+	/**
+	 * Change the effective tickets of the associated thread by <i>delta</i>,
+	 * here and in the queue it waits on, if any.
+	 *
+	 * @return the thread holding the queue the associated thread waits on, if
+	 *         that queue transfers tickets, or <tt>null</tt>.
+	 */
+	abstract TicketChain changeTickets(long delta);
+
+	/**
+	 * Change the effective tickets of the associated thread by <i>delta</i>,
+	 * and pass the change along the chain of queues waited on and their
+	 * holders. Each thread is changed at most once, so the walk also ends when
+	 * the chain runs into a cycle of deadlocked threads, whether or not this
+	 * thread is part of the cycle.
+	 */
+	final void addTickets(long delta) {
+		if (delta == 0)
+			return;
+
+		int walk = ++walks;
+		for (TicketChain state = this; state != null && state.walk != walk; state = state.changeTickets(delta))
+			state.walk = walk;
+	}
+
+	/** The last walk that changed the associated thread. */
+	private int walk = 0;
+
+	/** The number of walks so far. */
+	private static int walks = 0;
+}
@@ -52,6 +52,9 @@ public class UserProcess {
 
 	private static final int pageSize = Processor.pageSize;// 页大小
 
+	/** The ticks, instructions and exceptions charged to this process. */
+	protected Stats stats = new Stats();// 本进程的统计
+
 	private Lock joinLock = new Lock();// 进程join方法等待锁
 
 	private Condition joinCondition = new Condition(joinLock);// join方法使用的条件变量
@@ -249,6 +252,7 @@ public class UserProcess {
 	 * Called by <tt>UThread.saveState()</tt>.
 	 */
 	public void saveState() {
+		Machine.processor().setProcessStats(null);// 停止向本进程计入统计
 	}
 
 	/**
@@ -257,6 +261,7 @@ public class UserProcess {
 	 */
 	public void restoreState() {
 		Machine.processor().setPageTable(pageTable);// 将处理器的页表置为这个线程的页表
+		Machine.processor().setProcessStats(stats);// 之后执行的指令、异常和时间都计入本进程
 	}
 
 	/**
@@ -329,7 +334,7 @@ public class UserProcess {
 	public int readVirtualMemory(int vaddr, byte[] data, int offset, int length) {
 		Lib.assertTrue(offset >= 0 && length >= 0 && offset + length <= data.length);
 
-		byte[] memory = Machine.processor().getMemory();
+		Processor processor = Machine.processor();
 
 		if (length > (pageSize * numPages - vaddr))
 			length = pageSize * numPages - vaddr;// 读出的长度超过了文件的长度,只能读出从虚拟地址到结尾的内容
@@ -353,7 +358,7 @@ public class UserProcess {
 
 			int realAddress = pageTable[pageNum].ppn * pageSize + pageOffset;// 得到虚拟内存中的实际地址
 
-			System.arraycopy(memory, realAddress, data, offset + transferredbyte, amount);// 将数据从memory复制到data中
+			processor.readPhysicalMemory(realAddress, data, offset + transferredbyte, amount);// 将数据从memory复制到data中
 
 			transferredbyte = transferredbyte + amount; // 转换数量增加
 		} while (transferredbyte < length);
@@ -396,7 +401,7 @@ public class UserProcess {
 	public int writeVirtualMemory(int vaddr, byte[] data, int offset, int length) {
 		Lib.assertTrue(offset >= 0 && length >= 0 && offset + length <= data.length);
 
-		byte[] memory = Machine.processor().getMemory();
+		Processor processor = Machine.processor();
 
 		if (length > (pageSize * numPages - vaddr))
 			length = pageSize * numPages - vaddr;// 写入的长度超过了文件的长度只能写入从虚拟地址到结尾的内容
@@ -413,7 +418,7 @@ public class UserProcess {
 			int leftByte = pageSize - pageOffset;
 			int amount = Math.min(leftByte, length - transferredbyte);
 			int realAddress = pageTable[pageNum].ppn * pageSize + pageOffset;
-			System.arraycopy(data, offset + transferredbyte, memory, realAddress, amount);// 将数据从data复制到memory中
+			processor.writePhysicalMemory(realAddress, data, offset + transferredbyte, amount);// 将数据从data复制到memory中
 			transferredbyte = transferredbyte + amount;
 		} while (transferredbyte < length);
 
@@ -610,6 +615,12 @@ public class UserProcess {
 		this.status = status;// 把状态置入
 		normalExit = true;// 属于正常退出
 
+		Machine.processor().setProcessStats(null);// 结算本进程的统计
+		if (Lib.test(dbgProcess)) {// 只在调试标志a打开时打印，不改变默认输出
+			System.out.println("Process " + pid + " exited with status " + status);
+			stats.printExecution();
+		}
+
 		if (parentProcess != null)// 如果有父进程，就从父进程的子进程链表中删除，而且如果父进程join子进程，唤醒父进程
 		{
 			joinLock.acquire();